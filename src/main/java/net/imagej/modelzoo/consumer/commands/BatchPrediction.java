@@ -0,0 +1,298 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.modelzoo.consumer.network.model.Model;
+import net.imagej.modelzoo.consumer.network.model.ModelRegistry;
+import net.imglib2.RandomAccessibleInterval;
+import org.scijava.Context;
+import org.scijava.io.IOService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs one model on many inputs, loading the model only once. Inputs can be
+ * images or files (given as {@link File} or path). While one input is
+ * predicted, the next files are read in the background by a
+ * {@link PrefetchingReader}. If an output directory is set, the outputs are
+ * written there asynchronously, named like the input files, otherwise they
+ * are returned. Inputs which cannot be read or predicted are logged and
+ * skipped.
+ */
+public class BatchPrediction {
+
+	public static final int DEFAULT_MAX_PENDING_WRITES = 2;
+
+	@Parameter
+	private Context context;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private IOService ioService;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	private File modelFile;
+	private String modelUrl;
+	private File outputDirectory;
+	private boolean keepModelLoaded = false;
+	private int prefetch = PrefetchingReader.DEFAULT_PREFETCH;
+	private long maxPrefetchBytes = PrefetchingReader.getDefaultMaxBytes();
+	private int numWorkers = 1;
+	private int maxPendingWrites = DEFAULT_MAX_PENDING_WRITES;
+
+	public void setModelFromFile(File modelFile) {
+		this.modelFile = modelFile;
+	}
+
+	public void setModelFromURL(String modelUrl) {
+		this.modelUrl = modelUrl;
+	}
+
+	/**
+	 * Sets the directory the outputs are written to. If not set, the outputs
+	 * are returned by {@link #run(List)}.
+	 */
+	public void setOutputDirectory(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * @see PredictionLoader#setKeepModelLoaded(boolean)
+	 */
+	public void setKeepModelLoaded(boolean keepModelLoaded) {
+		this.keepModelLoaded = keepModelLoaded;
+	}
+
+	/**
+	 * Sets how many inputs are read ahead in the background while predicting.
+	 */
+	public void setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Sets how much memory inputs which are read ahead may use before reading
+	 * further inputs is paused.
+	 */
+	public void setMaxPrefetchBytes(long maxPrefetchBytes) {
+		this.maxPrefetchBytes = maxPrefetchBytes;
+	}
+
+	/**
+	 * Sets how many outputs may wait to be written. If writing is slower than
+	 * predicting, prediction pauses until an output is written.
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites) {
+		this.maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * @see PredictionExecutor#setNumWorkers(int)
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * @return the outputs in the order of the inputs if no output directory is
+	 *         set (null for inputs which could not be predicted), otherwise an
+	 *         empty list
+	 */
+	public List<RandomAccessibleInterval> run(List<?> inputs) {
+		final List<RandomAccessibleInterval> outputs = new ArrayList<>();
+		final long startTime = System.currentTimeMillis();
+		Model model = loadModel();
+		if(model == null || !model.isInitialized()) {
+			log.error("Could not load model, skipping batch prediction");
+			return outputs;
+		}
+		final PrefetchingReader reader = new PrefetchingReader(inputs, this::read, prefetch, maxPrefetchBytes);
+		final ExecutorService writer = Executors.newSingleThreadExecutor();
+		// outputs waiting to be written, prediction pauses if writing falls behind
+		final Semaphore pendingWrites = new Semaphore(Math.max(1, maxPendingWrites));
+		final List<Future<?>> writes = new ArrayList<>();
+		final Set<String> outputNames = new HashSet<>();
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				// the following inputs are read while predicting this one
+				final Object input = get(reader, inputs.get(i));
+				if(input == null) {
+					if(outputDirectory == null) outputs.add(null);
+					continue;
+				}
+				if(!model.isInitialized()) {
+					// e.g. disposed after running out of memory on the previous input
+					log.warn("Model was unloaded, loading it again");
+					releaseModel(model);
+					model = loadModel();
+					if(model == null || !model.isInitialized()) {
+						log.error("Could not load model again, aborting batch prediction after " + i + " of " + inputs.size() + " inputs");
+						break;
+					}
+				}
+				log.info("Predicting input " + (i + 1) + "/" + inputs.size() + ": " + inputs.get(i));
+				final RandomAccessibleInterval output = predict(model, input);
+				if(outputDirectory == null) {
+					outputs.add(output);
+				} else if(output != null) {
+					final File target = getOutputFile(inputs.get(i), i, outputNames);
+					pendingWrites.acquire();
+					try {
+						writes.add(writer.submit(() -> {
+							try {
+								write(output, target);
+							} finally {
+								pendingWrites.release();
+							}
+						}));
+					} catch (RejectedExecutionException e) {
+						pendingWrites.release();
+						throw e;
+					}
+				}
+			}
+			for (Future<?> write : writes) {
+				write.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("Batch prediction interrupted.");
+		} catch (ExecutionException e) {
+			log.error("Batch prediction failed", e.getCause());
+		} catch (CancellationException e) {
+			log.warn("Batch prediction canceled.");
+		} finally {
+			reader.close();
+			writer.shutdown();
+			releaseModel(model);
+		}
+		log.info("Batch prediction of " + inputs.size() + " inputs took " + (System.currentTimeMillis() - startTime) + " milliseconds");
+		return outputs;
+	}
+
+	private void releaseModel(Model model) {
+		if(model == null) return;
+		if(keepModelLoaded) ModelRegistry.getInstance().release(model);
+		else model.dispose();
+	}
+
+	private Model loadModel() {
+		PredictionLoader loader = new PredictionLoader();
+		context.inject(loader);
+		loader.setModelFromFile(modelFile);
+		loader.setModelFromURL(modelUrl);
+		loader.setKeepModelLoaded(keepModelLoaded);
+		loader.run();
+		return loader.getModel();
+	}
+
+	private Object read(Object input) throws IOException {
+		if(input instanceof File) input = ((File) input).getAbsolutePath();
+		if(input instanceof String) return ioService.open((String) input);
+		return input;
+	}
+
+	private Object get(PrefetchingReader reader, Object input) throws InterruptedException {
+		try {
+			return reader.next();
+		} catch (ExecutionException e) {
+			log.error("Could not read " + input, e.getCause());
+			return null;
+		}
+	}
+
+	private RandomAccessibleInterval predict(Model model, Object input) {
+		synchronized (model) {
+			Prediction prediction = new Prediction();
+			context.inject(prediction);
+			prediction.setModel(model);
+			prediction.setInput(input);
+			prediction.setNumWorkers(numWorkers);
+			try {
+				prediction.run();
+			} catch (CancellationException e) {
+				throw e;
+			} catch (RuntimeException | OutOfMemoryError e) {
+				// only skip this input, a disposed model is loaded again for the next one
+				log.error("Could not predict " + input, e);
+				return null;
+			}
+			if(prediction.getOutput() == null) log.error("Could not predict " + input);
+			return prediction.getOutput();
+		}
+	}
+
+	/**
+	 * @return the output file named like the input, with a number appended if
+	 *         another input of the batch has the same name without extension
+	 *         (e.g. a.png and a.tif)
+	 */
+	File getOutputFile(Object input, int index, Set<String> usedNames) {
+		String name = "output_" + index;
+		if(input instanceof File) name = ((File) input).getName();
+		else if(input instanceof String) name = new File((String) input).getName();
+		int extension = name.lastIndexOf('.');
+		if(extension > 0) name = name.substring(0, extension);
+		String uniqueName = name;
+		for (int i = 1; !usedNames.add(uniqueName.toLowerCase()); i++) {
+			uniqueName = name + "_" + i;
+		}
+		return new File(outputDirectory, uniqueName + ".tif");
+	}
+
+	private void write(RandomAccessibleInterval output, File target) {
+		try {
+			Dataset dataset = datasetService.create(output);
+			ioService.save(dataset, target.getAbsolutePath());
+		} catch (IOException e) {
+			log.error("Could not write " + target, e);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.commands;
+
+import org.scijava.Context;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Predicts all images of a directory with one model and writes the outputs
+ * into another directory. Runs headless, e.g. with
+ * {@code ImageJ --headless --run "..."}.
+ */
+@Plugin(type = Command.class)
+public class ModelZooBatchPredictionCommand implements Command {
+
+	@Parameter(label = "Input directory", style = "directory")
+	private File inputDirectory;
+
+	@Parameter(label = "Output directory", style = "directory")
+	private File outputDirectory;
+
+	@Parameter(label = "Import model (.zip)", required = false)
+	private File modelFile;
+
+	@Parameter(label = "Import model (.zip) from URL", required = false)
+	private String modelUrl;
+
+	@Parameter(label = "Number of images to read ahead", required = false, min = "1")
+	private int prefetch = PrefetchingReader.DEFAULT_PREFETCH;
+
+	@Parameter(label = "Number of tiles predicted in parallel", required = false, min = "1")
+	private int numWorkers = 1;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private Context context;
+
+	@Override
+	public void run() {
+		File[] files = inputDirectory.listFiles(file -> file.isFile() && !file.isHidden());
+		if(files == null) {
+			log.error("Cannot read input directory " + inputDirectory);
+			return;
+		}
+		if(!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+			log.error("Cannot create output directory " + outputDirectory);
+			return;
+		}
+		List<File> inputs = Arrays.stream(files).sorted().collect(Collectors.toList());
+		BatchPrediction prediction = new BatchPrediction();
+		context.inject(prediction);
+		prediction.setModelFromFile(modelFile);
+		prediction.setModelFromURL(modelUrl);
+		prediction.setOutputDirectory(outputDirectory);
+		prediction.setPrefetch(prefetch);
+		prediction.setNumWorkers(numWorkers);
+		prediction.run(inputs);
+	}
+
+}
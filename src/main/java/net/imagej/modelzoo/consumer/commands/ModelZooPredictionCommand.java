@@ -30,10 +30,8 @@
 package net.imagej.modelzoo.consumer.commands;
 
 import net.imagej.ImageJ;
-import net.imagej.modelzoo.consumer.commands.postprocessing.PredictionPostprocessing;
-import net.imagej.modelzoo.consumer.commands.preprocessing.PredictionInputHarvesting;
-import net.imagej.modelzoo.consumer.commands.preprocessing.PredictionPreprocessing;
 import net.imagej.modelzoo.consumer.network.model.Model;
+import net.imagej.modelzoo.consumer.network.model.ModelRegistry;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import org.scijava.Context;
@@ -49,7 +47,6 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
@@ -65,6 +62,15 @@ public class ModelZooPredictionCommand implements Command {
 	@Parameter(label = "Import model (.zip) from URL", required = false)
 	private String modelUrl;
 
+	@Parameter(label = "Warm up model after loading", required = false)
+	private boolean warmUp = false;
+
+	@Parameter(label = "Keep model loaded for following predictions", required = false)
+	private boolean keepModelLoaded = true;
+
+	@Parameter(label = "Number of tiles predicted in parallel", required = false, min = "1")
+	private int numWorkers = 1;
+
 	@Parameter(type = ItemIO.OUTPUT)
 	private RandomAccessibleInterval output;
 
@@ -78,24 +84,33 @@ public class ModelZooPredictionCommand implements Command {
 
 		final long startTime = System.currentTimeMillis();
 
+		Model model = null;
 		try {
 
-			Model model = loadModel();
+			model = loadModel();
 
 			if(!model.isInitialized()) {
 				return;
 			}
 
-			if(!inputValidationAndMapping(model)) return;
-
-			preprocessing(model);
-			executePrediction(model);
-			postprocessing(model);
+			// a kept model may be shared with other running predictions
+			synchronized (model) {
+				Prediction prediction = new Prediction();
+				context.inject(prediction);
+				prediction.setModel(model);
+				prediction.setInput(input);
+				prediction.setNumWorkers(numWorkers);
+				prediction.run();
+				if(prediction.getOutput() == null) return;
+				output = prediction.getOutput();
+			}
 
 		} catch(CancellationException e) {
 			log.warn("ModelZoo prediction canceled.");
 		} catch(OutOfMemoryError e) {
 			e.printStackTrace();
+		} finally {
+			if(keepModelLoaded && model != null) ModelRegistry.getInstance().release(model);
 		}
 		log.info("ModelZoo prediction exit (took " + (System.currentTimeMillis() - startTime) + " milliseconds)");
 
@@ -106,42 +121,12 @@ public class ModelZooPredictionCommand implements Command {
 		context.inject(loader);
 		loader.setModelFromFile(modelFile);
 		loader.setModelFromURL(modelUrl);
+		loader.setWarmUp(warmUp);
+		loader.setKeepModelLoaded(keepModelLoaded);
 		loader.run();
 		return loader.getModel();
 	}
 
-	private void preprocessing(Model model) {
-		PredictionPreprocessing preprocessing = new PredictionPreprocessing();
-		context.inject(preprocessing);
-		preprocessing.setModel(model);
-		preprocessing.run();
-	}
-
-	private void executePrediction(Model model) {
-		PredictionExecutor executor = new PredictionExecutor();
-		context.inject(executor);
-		executor.setModel(model);
-		executor.run();
-	}
-
-	private void postprocessing(Model model) {
-		PredictionPostprocessing postprocessing = new PredictionPostprocessing();
-		context.inject(postprocessing);
-		postprocessing.setModel(model);
-		postprocessing.run();
-		Map<String, Object> outputs = postprocessing.getOutputs();
-		this.output = (RandomAccessibleInterval) outputs.values().iterator().next();
-	}
-
-	private boolean inputValidationAndMapping(Model model) {
-		PredictionInputHarvesting inputHarvesting = new PredictionInputHarvesting();
-		context.inject(inputHarvesting);
-		inputHarvesting.setModel(model);
-		inputHarvesting.addInput("input", input);
-		inputHarvesting.run();
-		return inputHarvesting.getSuccess();
-	}
-
 	public static void main(String...args) throws IOException, URISyntaxException, ExecutionException, InterruptedException {
 		ImageJ ij = new ImageJ();
 		ij.launch();
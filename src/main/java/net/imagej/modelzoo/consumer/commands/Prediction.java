@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imagej.modelzoo.consumer.commands.postprocessing.PredictionPostprocessing;
+import net.imagej.modelzoo.consumer.commands.preprocessing.PredictionInputHarvesting;
+import net.imagej.modelzoo.consumer.commands.preprocessing.PredictionPreprocessing;
+import net.imagej.modelzoo.consumer.network.model.Model;
+import net.imglib2.RandomAccessibleInterval;
+import org.scijava.Context;
+import org.scijava.plugin.Parameter;
+
+import java.util.Map;
+
+/**
+ * Runs a loaded model on a single input: harvesting and mapping the input,
+ * preprocessing, prediction and postprocessing.
+ */
+public class Prediction implements Runnable {
+
+	@Parameter
+	private Context context;
+
+	private Model model;
+
+	private Object input;
+
+	private RandomAccessibleInterval output;
+
+	private int numWorkers = 1;
+
+	@Override
+	public void run() {
+		output = null;
+		// the model may have been used for other inputs before
+		model.reset();
+		if(!inputValidationAndMapping()) return;
+
+		preprocessing();
+		executePrediction();
+		postprocessing();
+	}
+
+	private void preprocessing() {
+		PredictionPreprocessing preprocessing = new PredictionPreprocessing();
+		context.inject(preprocessing);
+		preprocessing.setModel(model);
+		preprocessing.run();
+	}
+
+	private void executePrediction() {
+		PredictionExecutor executor = new PredictionExecutor();
+		context.inject(executor);
+		executor.setModel(model);
+		executor.setNumWorkers(numWorkers);
+		executor.run();
+	}
+
+	private void postprocessing() {
+		PredictionPostprocessing postprocessing = new PredictionPostprocessing();
+		context.inject(postprocessing);
+		postprocessing.setModel(model);
+		postprocessing.run();
+		Map<String, Object> outputs = postprocessing.getOutputs();
+		this.output = (RandomAccessibleInterval) outputs.values().iterator().next();
+	}
+
+	private boolean inputValidationAndMapping() {
+		PredictionInputHarvesting inputHarvesting = new PredictionInputHarvesting();
+		context.inject(inputHarvesting);
+		inputHarvesting.setModel(model);
+		inputHarvesting.addInput("input", input);
+		inputHarvesting.run();
+		return inputHarvesting.getSuccess();
+	}
+
+	public void setModel(Model model) {
+		this.model = model;
+	}
+
+	public void setInput(Object input) {
+		this.input = input;
+	}
+
+	/**
+	 * @see PredictionExecutor#setNumWorkers(int)
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * @return the output of the last run, null if the input could not be used
+	 */
+	public RandomAccessibleInterval getOutput() {
+		return output;
+	}
+}
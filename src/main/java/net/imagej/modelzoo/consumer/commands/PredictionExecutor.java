@@ -29,14 +29,30 @@
 
 package net.imagej.modelzoo.consumer.commands;
 
+import net.imagej.axis.AxisType;
 import net.imagej.modelzoo.consumer.network.DefaultModelExecutor;
 import net.imagej.modelzoo.consumer.network.ModelExecutor;
+import net.imagej.modelzoo.consumer.network.model.InputNode;
 import net.imagej.modelzoo.consumer.network.model.Model;
+import net.imagej.modelzoo.consumer.network.model.ModelRegistry;
+import net.imagej.modelzoo.consumer.network.model.ModelZooAxis;
+import net.imagej.modelzoo.consumer.network.model.OutputNode;
 import net.imagej.modelzoo.consumer.task.Task;
+import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
+import net.imagej.modelzoo.consumer.tiling.DefaultInputTiler;
+import net.imagej.modelzoo.consumer.tiling.DefaultOutputTiler;
+import net.imagej.modelzoo.consumer.tiling.DefaultTiling;
+import net.imagej.modelzoo.consumer.tiling.InputTiler;
+import net.imagej.modelzoo.consumer.tiling.OutputTiler;
+import net.imagej.modelzoo.consumer.tiling.TilePlanner;
 import net.imagej.modelzoo.consumer.tiling.Tiling;
+import net.imglib2.RandomAccessibleInterval;
 import org.scijava.Cancelable;
 import org.scijava.Disposable;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -44,15 +60,21 @@ import java.util.concurrent.Future;
 
 public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 
+	private static final int DEFAULT_OVERLAP = 32;
+
 	private Model model;
 
 	private int nTiles = 8;
 	private int batchSize = 1;
+	private boolean planTiling = true;
+	private long memoryBudget = TilePlanner.getDefaultMemoryBudget();
+	private long bytesPerPixel = TilePlanner.DEFAULT_BYTES_PER_PIXEL;
+	private int numWorkers = 1;
 	private Tiling tiling;
 
 	private final ModelExecutor modelExecutor = new DefaultModelExecutor();
-//	private final InputTiler inputTiler = new DefaultInputTiler();
-//	private final OutputTiler outputTiler = new DefaultOutputTiler();
+	private final InputTiler inputTiler = new DefaultInputTiler();
+	private final OutputTiler outputTiler = new DefaultOutputTiler();
 	private ExecutorService pool = null;
 	private Future<?> future;
 	private int oldNTiles;
@@ -64,6 +86,7 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 	public void run() {
 
 		pool = Executors.newSingleThreadExecutor();
+		model.setNumWorkers(numWorkers);
 
 		try {
 
@@ -86,29 +109,43 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 			e.printStackTrace();
 		}
 
-//		initTiling();
-//		List<AdvancedTiledView<FloatType>> tiledOutput = null;
-//		try {
-//			tiledOutput = tryToTileAndRunNetwork(input);
-//		} catch (ExecutionException e) {
-//			e.printStackTrace();
-//		}
-//		if(tiledOutput != null) {
-//			if(model.getOutputNode().getTilingAllowed()) {
-//				output = outputTiler.run(
-//						tiledOutput, tiling, model.getOutputNode().getFinalAxesArray());
-//			} else {
-//				output = tiledOutput.stream().map(this::getSingleTile).collect(Collectors.toList());
-//			}
-//			for (AdvancedTiledView obj : tiledOutput) {
-//				obj.dispose();
-//			}
-//		}
-
 	}
 
 	private void initTiling() {
-//		tiling = new DefaultTiling(nTiles);
+		DefaultTiling defaultTiling;
+		if(planTiling) {
+			defaultTiling = new DefaultTiling(createTilePlanner(), batchSize);
+		} else {
+			int blockMultiple = getBlockMultiple();
+			defaultTiling = new DefaultTiling(nTiles, batchSize, blockMultiple, getTilingOverlap(blockMultiple));
+		}
+		OutputNode outputNode = model.getOutputNodes().get(0);
+		for (AxisType axisType : outputNode.getAxesArray()) {
+			Map<String, Object> attrs = outputNode.getAxis(axisType).getAttributes();
+			Object offset = attrs.get("offset");
+			defaultTiling.setOutputScaleAndOffset(axisType, getScale(attrs),
+					offset == null ? 0 : (int) offset);
+		}
+		tiling = defaultTiling;
+	}
+
+	private TilePlanner createTilePlanner() {
+		InputNode inputNode = model.getInputNodes().get(0);
+		OutputNode outputNode = model.getOutputNodes().get(0);
+		int[] mappingIndices = inputNode.getMappingIndices();
+		long[] min = new long[mappingIndices.length];
+		long[] step = new long[mappingIndices.length];
+		long[] halo = new long[mappingIndices.length];
+		for (int i = 0; i < mappingIndices.length; i++) {
+			ModelZooAxis axis = inputNode.getAxis(mappingIndices[i]);
+			Map<String, Object> attrs = axis.getAttributes();
+			Object minVal = attrs.get("min");
+			Object stepVal = attrs.get("step");
+			min[i] = minVal == null ? 1 : (int) minVal;
+			step[i] = stepVal == null ? 0 : (int) stepVal;
+			halo[i] = getInputHalo(outputNode.getAxis(axis.getType()), Math.max(1, (int) step[i]));
+		}
+		return new TilePlanner(memoryBudget, bytesPerPixel, min, step, halo);
 	}
 
 	private void tryToRunModel()
@@ -132,38 +169,114 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 	}
 
 	private void runModel() throws ExecutionException {
-		modelExecutor.run(model);
-	}
-
-//	private List tileAndRunNetwork(List<RandomAccessibleInterval> input) throws ExecutionException {
-//		AxisType[] finalInputAxes = model.getInputNode().getFinalAxesArray();
-//		Tiling.TilingAction[] tilingActions = model.getInputNode().getTilingActions();
-//		final List<AdvancedTiledView> tiledInput;
-//		if(model.getInputNode().getTilingAllowed()) {
-//			tiledInput = inputTiler.run(
-//					input, finalInputAxes, tiling, tilingActions);
-//			nTiles = tiling.getTilesNum();
-//		} else {
-//			tiledInput = input.stream().map(image -> getSingleTileView(image, finalInputAxes)).collect(Collectors.toList());
-//		}
-//		if(tiledInput == null) return null;
-//		return modelExecutor.run(tiledInput, model);
-//	}
-//
-//	private AdvancedTiledView getSingleTileView(RandomAccessibleInterval image, AxisType[] finalInputAxes) {
-//		long[] blockSize = new long[image.numDimensions()];
-//		long[] overlap = new long[image.numDimensions()];
-//		for (int i = 0; i < blockSize.length; i++) {
-//			blockSize[i] = image.dimension(i);
-//			overlap[i] = 0;
-//		}
-//		return new AdvancedTiledView(image, blockSize, overlap, finalInputAxes);
-//	}
+		if(tilingAllowed()) {
+			if(tiling == null) initTiling();
+			tileAndRunModel();
+		} else {
+			modelExecutor.run(model);
+		}
+	}
+
+	private boolean tilingAllowed() {
+		return model.getInputNodes().size() == 1
+				&& model.getOutputNodes().size() == 1
+				&& model.getInputNodes().get(0).getTilingAllowed();
+	}
+
+	private void tileAndRunModel() throws ExecutionException {
+		InputNode inputNode = model.getInputNodes().get(0);
+		OutputNode outputNode = model.getOutputNodes().get(0);
+		List<RandomAccessibleInterval> input = Collections.singletonList(
+				(RandomAccessibleInterval) inputNode.getData());
+		List<AdvancedTiledView> tiledInput = inputTiler.run(
+				input, inputNode.getFinalAxesArray(), tiling, inputNode.getTilingActions());
+		nTiles = tiling.getTilesNum();
+		List<AdvancedTiledView> tiledOutput = modelExecutor.run(tiledInput, model);
+		if(tiledOutput == null) return;
+		List<RandomAccessibleInterval> output = outputTiler.run(
+				tiledOutput, tiling, outputNode.getFinalAxesArray());
+		for (AdvancedTiledView obj : tiledOutput) {
+			obj.dispose();
+		}
+		if(output.size() > 0) outputNode.setData(output.get(0));
+	}
+
+	/**
+	 * The tile size has to be a multiple of the largest step size of the tiled
+	 * input axes to be accepted by the model.
+	 */
+	private int getBlockMultiple() {
+		int res = 1;
+		InputNode inputNode = model.getInputNodes().get(0);
+		AxisType[] axes = inputNode.getAxesArray();
+		for (int i = 0; i < axes.length; i++) {
+			Map<String, Object> attrs = inputNode.getAxis(i).getAttributes();
+			Object step = attrs.get("step");
+			if(attrs.get("tiling") == Tiling.TilingAction.TILE_WITH_PADDING && step != null) {
+				res = Math.max(res, (int) step);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * The explicit tiling pads all tiled axes equally, so it uses the largest
+	 * input halo of the axes tiled with padding.
+	 */
+	private int getTilingOverlap(int blockMultiple) {
+		InputNode inputNode = model.getInputNodes().get(0);
+		OutputNode outputNode = model.getOutputNodes().get(0);
+		AxisType[] axes = inputNode.getAxesArray();
+		int res = -1;
+		for (int i = 0; i < axes.length; i++) {
+			if(inputNode.getAxis(i).getAttributes().get("tiling") != Tiling.TilingAction.TILE_WITH_PADDING) continue;
+			res = Math.max(res, getInputHalo(outputNode.getAxis(axes[i]), blockMultiple));
+		}
+		return res < 0 ? getOverlap(blockMultiple) : res;
+	}
+
+	private int getOverlap(int blockMultiple) {
+		return (int) Math.ceil(DEFAULT_OVERLAP / (double) blockMultiple) * blockMultiple;
+	}
+
+	/**
+	 * The halo of an output axis is given in output pixels. The input tiles are
+	 * padded by the corresponding number of input pixels, rounded up to the step
+	 * size of the input axis. Falls back to the default overlap if the model
+	 * does not declare a halo.
+	 */
+	private int getInputHalo(ModelZooAxis outputAxis, int blockMultiple) {
+		Object halo = outputAxis == null ? null : outputAxis.getAttributes().get("halo");
+		if(halo == null) return getOverlap(blockMultiple);
+		int scale = getScale(outputAxis.getAttributes());
+		int inputHalo = (int) Math.ceil((int) halo / (double) scale);
+		return (int) Math.ceil(inputHalo / (double) blockMultiple) * blockMultiple;
+	}
+
+	private int getScale(Map<String, Object> attrs) {
+		Object scale = attrs.get("scale");
+		if(scale == null || (int) scale < 1) return 1;
+		return (int) scale;
+	}
 
 	private boolean tryHandleOutOfMemoryError() {
 		// We expect it to be an out of memory exception and
 		// try it again with more tiles or smaller batches.
 		final Task modelExecutorTask = modelExecutor;
+		if(model.getTilesPerBatch() > 1) {
+			// first try stacking less tiles into one model run
+			int tilesPerBatch = model.getTilesPerBatch() / 2;
+			model.setTilesPerBatch(tilesPerBatch);
+			modelExecutorTask.logWarning(
+					"Out of memory exception occurred. Trying with " + tilesPerBatch +
+							" tile(s) per batch...");
+			modelExecutorTask.startNewIteration();
+			return true;
+		}
+		if(tiling == null) {
+			modelExecutorTask.setFailed();
+			return false;
+		}
 		nTiles = tiling.getTilesNum();
 		if(oldNTiles == nTiles && oldBatchesSize == batchSize) {
 			modelExecutorTask.setFailed();
@@ -175,12 +288,18 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 		handleOutOfMemoryError();
 		initTiling();
 		nTiles = tiling.getTilesNum();
-		modelExecutorTask.logWarning(
-				"Out of memory exception occurred. Trying with " + nTiles +
-						" tiles, batch size " + batchSize + "...");
+		if(planTiling) {
+			modelExecutorTask.logWarning(
+					"Out of memory exception occurred. Trying with a memory budget of " +
+							memoryBudget + " bytes, batch size " + batchSize + "...");
+		} else {
+			modelExecutorTask.logWarning(
+					"Out of memory exception occurred. Trying with " + nTiles +
+							" tiles, batch size " + batchSize + "...");
+		}
 
 		modelExecutorTask.startNewIteration();
-//		inputTiler.addIteration();
+		inputTiler.addIteration();
 		return true;
 	}
 
@@ -188,7 +307,11 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 		batchSize /= 2;
 		if (batchSize < 1) {
 			batchSize = 1;
-			nTiles *= 2;
+			if(planTiling) {
+				memoryBudget /= 2;
+			} else {
+				nTiles *= 2;
+			}
 		}
 	}
 
@@ -196,9 +319,48 @@ public class PredictionExecutor implements Runnable, Disposable, Cancelable {
 		this.model = model;
 	}
 
+	/**
+	 * Sets the memory in bytes a single tile may use. The tiling is planned
+	 * before running the model so that each tile fits into this budget.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		planTiling = true;
+	}
+
+	/**
+	 * Sets the estimated memory in bytes the model needs per pixel of a tile.
+	 */
+	public void setBytesPerPixel(long bytesPerPixel) {
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	/**
+	 * Uses a fixed number of tiles instead of planning the tiling based on the
+	 * memory budget.
+	 */
+	public void setNumberOfTiles(int nTiles) {
+		this.nTiles = nTiles;
+		planTiling = false;
+	}
+
+	/**
+	 * Sets on how many tiles the model runs in parallel, each worker using its
+	 * own model instance. Defaults to a single worker, which does not load any
+	 * additional model instances.
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = Math.max(1, numWorkers);
+	}
+
+	/**
+	 * Disposes the model unless it is kept in the {@link ModelRegistry}, where
+	 * other predictions may still use it. Registered models are released by
+	 * whoever acquired them.
+	 */
 	@Override
 	public void dispose() {
-		if (model != null) {
+		if (model != null && !ModelRegistry.getInstance().isRegistered(model)) {
 			model.dispose();
 		}
 		if(pool != null) {
@@ -30,6 +30,7 @@
 package net.imagej.modelzoo.consumer.commands;
 
 import net.imagej.modelzoo.consumer.network.model.Model;
+import net.imagej.modelzoo.consumer.network.model.ModelRegistry;
 import net.imagej.modelzoo.consumer.network.model.tensorflow.TensorFlowModel;
 import net.imagej.modelzoo.consumer.util.IOHelper;
 import org.scijava.Context;
@@ -49,6 +50,10 @@ public class PredictionLoader implements Runnable {
 
 	private Model model;
 
+	private boolean warmUp = false;
+
+	private boolean keepModelLoaded = false;
+
 	@Parameter
 	private Context context;
 
@@ -70,22 +75,36 @@ public class PredictionLoader implements Runnable {
 	public void run() {
 		cacheName = this.getClass().getSimpleName();
 		modelFileKey = getModelFileKey();
-		model = new TensorFlowModel();
+
+		solveModelSource();
+
+		if(keepModelLoaded && !modelFileUrl.isEmpty()) {
+			if(ModelRegistry.getInstance().contains(cacheName)) {
+				log.info("Using loaded model " + cacheName);
+			}
+			model = ModelRegistry.getInstance().acquire(cacheName, this::loadModel);
+		} else {
+			model = loadModel();
+		}
+	}
+
+	private Model loadModel() {
+		Model model = new TensorFlowModel();
 		context.inject(model);
 		model.loadLibrary();
 		if (!model.libraryLoaded()) {
 			log.error("TensorFlow library could not be loaded");
-			return;
+			return model;
 		}
 
-		solveModelSource();
-
-		if(modelFileUrl.isEmpty()) return;
+		if(modelFileUrl.isEmpty()) return model;
+		model.setWarmUp(warmUp);
 		try {
 			model.loadModel(modelFileUrl, cacheName);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
+		return model;
 	}
 
 	public void setModelFromFile(File modelFile) {
@@ -96,6 +115,22 @@ public class PredictionLoader implements Runnable {
 		this.modelUrl = url;
 	}
 
+	/**
+	 * If set, the model is taken from or added to the {@link ModelRegistry}, so
+	 * that it stays loaded for following predictions. The model then has to be
+	 * passed to {@link ModelRegistry#release(Model)} after the prediction.
+	 */
+	public void setKeepModelLoaded(boolean keepModelLoaded) {
+		this.keepModelLoaded = keepModelLoaded;
+	}
+
+	/**
+	 * @see Model#setWarmUp(boolean)
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
 	private void solveModelSource() {
 		if(modelFileUrl.isEmpty()) modelFileChanged();
 		if(modelFileUrl.isEmpty()) modelUrlChanged();
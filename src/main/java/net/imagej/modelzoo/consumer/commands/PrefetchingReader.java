@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads inputs in the background, ahead of the consumer. At most
+ * {@code prefetch} inputs are read or waiting at the same time, each on its
+ * own thread. A read is only started if the images read but not yet taken
+ * with {@link #next()}, the running reads and the new read stay below
+ * {@code maxBytes} bytes. The memory of an image is estimated from its size
+ * and pixel type, running reads are assumed to be as large as the last image
+ * read. The next input in line is always read, even if it exceeds the limit.
+ */
+public class PrefetchingReader implements AutoCloseable {
+
+	public interface Reader {
+
+		Object read(Object input) throws Exception;
+	}
+
+	public static final int DEFAULT_PREFETCH = 2;
+
+	private final List<?> inputs;
+	private final Reader reader;
+	private final int prefetch;
+	private final long maxBytes;
+	private final ExecutorService pool;
+	private final Deque<Future<Object>> pending = new ArrayDeque<>();
+	// size of the images which are read and not taken yet
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final AtomicLong lastBytes = new AtomicLong();
+	private final AtomicInteger running = new AtomicInteger();
+	private int nextToRead = 0;
+
+	public PrefetchingReader(List<?> inputs, Reader reader, int prefetch,
+		long maxBytes)
+	{
+		this.inputs = inputs;
+		this.reader = reader;
+		this.prefetch = Math.max(1, prefetch);
+		this.maxBytes = maxBytes;
+		this.pool = Executors.newFixedThreadPool(this.prefetch, runnable -> {
+			Thread thread = new Thread(runnable, "modelzoo-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * @return the default memory limit, a quarter of the maximum heap size
+	 */
+	public static long getDefaultMaxBytes() {
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	public boolean hasNext() {
+		return !pending.isEmpty() || nextToRead < inputs.size();
+	}
+
+	/**
+	 * @return the next input after reading it, waiting for the read to finish
+	 * @throws ExecutionException if the input could not be read
+	 */
+	public Object next() throws InterruptedException, ExecutionException {
+		startReads();
+		final Future<Object> read = pending.poll();
+		if (read == null) throw new IllegalStateException("No more inputs");
+		try {
+			final Object res = read.get();
+			queuedBytes.addAndGet(-estimateBytes(res));
+			return res;
+		}
+		finally {
+			startReads();
+		}
+	}
+
+	private void startReads() {
+		while (pending.size() < prefetch && nextToRead < inputs.size() &&
+			(pending.isEmpty() || getExpectedBytes() <= maxBytes))
+		{
+			final Object input = inputs.get(nextToRead++);
+			running.incrementAndGet();
+			pending.add(pool.submit(() -> {
+				try {
+					final Object res = reader.read(input);
+					final long bytes = estimateBytes(res);
+					queuedBytes.addAndGet(bytes);
+					lastBytes.set(bytes);
+					return res;
+				}
+				finally {
+					running.decrementAndGet();
+				}
+			}));
+		}
+	}
+
+	/**
+	 * @return the expected memory of the queued images after starting one more
+	 *         read
+	 */
+	private long getExpectedBytes() {
+		return queuedBytes.get() + (running.get() + 1) * lastBytes.get();
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+		pending.clear();
+	}
+
+	/**
+	 * @return the estimated memory used by the pixels of an image, 0 for other
+	 *         objects
+	 */
+	static long estimateBytes(Object data) {
+		if (!(data instanceof RandomAccessibleInterval)) return 0;
+		final RandomAccessibleInterval image = (RandomAccessibleInterval) data;
+		final long numElements = Intervals.numElements(image);
+		if (numElements == 0) return 0;
+		final Object type = Util.getTypeFromInterval(image);
+		final long bits = type instanceof RealType ? ((RealType) type).getBitsPerPixel() : 32;
+		return numElements * bits / 8;
+	}
+}
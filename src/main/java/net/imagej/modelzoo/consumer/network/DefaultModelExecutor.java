@@ -32,68 +32,73 @@ package net.imagej.modelzoo.consumer.network;
 import net.imagej.modelzoo.consumer.network.model.Model;
 import net.imagej.modelzoo.consumer.task.DefaultTask;
 import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
+import net.imagej.modelzoo.consumer.util.LogHelper;
 import net.imglib2.type.numeric.RealType;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 
 public class DefaultModelExecutor<T extends RealType<T>> extends DefaultTask
 	implements ModelExecutor<T>
 {
 
-	private ExecutorService pool = null;
 	private Model model = null;
 	private boolean canceled = false;
-//
-//	@Override
-//	public List<AdvancedTiledView<T>> run(final List<AdvancedTiledView<T>> input,
-//		final Model network) throws OutOfMemoryError, ExecutionException {
-//		if(!isCanceled()) {
-//			setStarted();
-//			this.network = network;
-//			if (input.size() > 0) {
-//				DatasetHelper.logDim(this, "Network input size", input.get(0)
-//						.randomAccess().get());
-//			}
-//
-//			setCurrentStep(0);
-//			network.resetTileCount();
-//			setNumSteps(getSteps(input));
-//
-//			pool = Executors.newWorkStealingPool();
-//			final List<AdvancedTiledView<T>> output = new ArrayList<>();
-//			for (AdvancedTiledView<T> tile : input) {
-//				output.add(run(tile, network));
-//				if(isCanceled()) return null;
-//			}
-//			pool.shutdown();
-//			if(isCanceled()) return null;
-//			if (output.size() > 0) {
-//				DatasetHelper.logDim(this, "Network output size", output.get(0)
-//						.getProcessedTiles().get(0));
-//			}
-//			setFinished();
-//			return output;
-//		}
-//		return null;
-//	}
 
 	@Override
-	public void run(Model model) throws ExecutionException {
+	public List<AdvancedTiledView<T>> run(final List<AdvancedTiledView<T>> input,
+		final Model model) throws OutOfMemoryError, ExecutionException {
 		if(!isCanceled()) {
 			setStarted();
 			this.model = model;
-			setCurrentStep(0);
+			if (input.size() > 0) {
+				LogHelper.logDim(this, "Network input tiling", input.get(0));
+			}
+
+			setNumSteps(getSteps(input));
+			model.setStatus(this);
 			model.resetTileCount();
-			//FIXME
+
+			final List<AdvancedTiledView<T>> output = new ArrayList<>();
+			try {
+				for (AdvancedTiledView<T> tile : input) {
+					model.setTiledView(tile);
+					runTile(model);
+					if(isCanceled()) return null;
+					output.add(tile);
+				}
+			}
+			finally {
+				model.setTiledView(null);
+				model.setStatus(null);
+			}
+			if (output.size() > 0 && output.get(0).getProcessedTiles().size() > 0) {
+				LogHelper.logDim(this, "Network output tile size", output.get(0)
+						.getProcessedTiles().get(0));
+			}
+			setFinished();
+			return output;
+		}
+		return null;
+	}
+
+	@Override
+	public void run(Model model) throws ExecutionException {
+		if(!isCanceled()) {
+			setStarted();
+			this.model = model;
 			setNumSteps(1);
-			pool = Executors.newWorkStealingPool();
-			runTile(model);
-			pool.shutdown();
+			model.setStatus(this);
+			model.resetTileCount();
+			try {
+				runTile(model);
+			}
+			finally {
+				model.setStatus(null);
+			}
 			setFinished();
 		}
 	}
@@ -113,10 +118,7 @@ public class DefaultModelExecutor<T extends RealType<T>> extends DefaultTask
 	private void runTile(final Model model) throws OutOfMemoryError, IllegalArgumentException, ExecutionException {
 
 		try {
-//			CountDownLatch latch = new CountDownLatch(1);
-//			pool.execute(model);
 			model.run();
-//			latch.await();
 		}
 		catch(final CancellationException | RejectedExecutionException e) {
 			//canceled
@@ -140,45 +142,6 @@ public class DefaultModelExecutor<T extends RealType<T>> extends DefaultTask
 		}
 	}
 
-//	private AdvancedTiledView<T> run(final AdvancedTiledView<T> input,
-//		final Model network) throws OutOfMemoryError, IllegalArgumentException, ExecutionException {
-//
-//		input.getProcessedTiles().clear();
-//
-//		try {
-//			network.setTiledView(input);
-//			Future<List<RandomAccessibleInterval<T>>> resultFuture = pool.submit(network);
-//			List<RandomAccessibleInterval<T>> result = resultFuture.get();
-//			if(result != null) {
-//				input.getProcessedTiles().addAll(result);
-//			}
-//
-//		}
-//		catch(final CancellationException | RejectedExecutionException | InterruptedException e) {
-//			//canceled
-//			setFailed();
-//			String PROGRESS_CANCELED = "Canceled";
-//			log(PROGRESS_CANCELED);
-//			cancel(PROGRESS_CANCELED);
-//			return null;
-//		}
-//		catch(final IllegalArgumentException e) {
-//			setFailed();
-//			throw e;
-//		}
-//		catch (final ExecutionException | IllegalStateException exc) {
-//			if(exc.getMessage() != null && exc.getMessage().contains("OOM")) {
-//				setIdle();
-//				throw new OutOfMemoryError();
-//			}
-//			exc.printStackTrace();
-//			setFailed();
-//			throw exc;
-//		}
-//
-//		return input;
-//	}
-
 	@Override
 	public boolean isCanceled() {
 		return canceled;
@@ -187,9 +150,6 @@ public class DefaultModelExecutor<T extends RealType<T>> extends DefaultTask
 	@Override
 	public void cancel(final String reason) {
 		canceled = true;
-		if (pool != null && !pool.isShutdown()) {
-			pool.shutdownNow();
-		}
 		if(model != null) {
 			model.cancel(reason);
 		}
@@ -29,18 +29,31 @@
 
 package net.imagej.modelzoo.consumer.network.model;
 
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.task.Task;
+import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
+import net.imagej.modelzoo.consumer.tiling.TiledOutput;
+import net.imagej.modelzoo.consumer.tiling.Tiling;
 import net.imagej.modelzoo.consumer.util.IOHelper;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.TiledView;
+import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 import org.scijava.io.location.Location;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 public abstract class DefaultModel<T extends RealType<T>> implements Model {
 
@@ -49,15 +62,50 @@ public abstract class DefaultModel<T extends RealType<T>> implements Model {
 
 	protected final List<InputNode> inputNodes = new ArrayList<>();
 	protected final List<OutputNode> outputNodes = new ArrayList<>();
-	protected TiledView<T> tiledView;
+	protected AdvancedTiledView<T> tiledView;
 	protected Integer doneTileCount;
-	ExecutorService pool;
+	// the output the tiles of the current run are written into, if any
+	private TiledOutput<T> tiledOutput;
+	private long collectedTileCount;
+	private int outputBatchDim = -1;
+	// number of tiles of each batch which was prepared but not collected yet
+	private final Queue<Integer> batchTileCounts = new ConcurrentLinkedQueue<>();
+	private Task status;
+	private boolean canceled = false;
+	private int pipelineQueueSize = 2;
+	private int numWorkers = 1;
+	private int tilesPerBatch = 0;
+	private int usedTilesPerBatch = 1;
+	private boolean warmUp = false;
+	private long warmUpTime = -1;
+
+	private static final int MAX_AUTO_TILES_PER_BATCH = 16;
+	// input tensor, output tensor and converted output, all float
+	private static final long BYTES_PER_TILE_PIXEL = 3 * 4;
 
 	public DefaultModel() {
 	}
 
 	protected abstract boolean loadModel(Location source, String modelName);
 
+	@Override
+	public void setWarmUp(final boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	protected boolean isWarmUp() {
+		return warmUp;
+	}
+
+	@Override
+	public long getWarmUpTime() {
+		return warmUpTime;
+	}
+
+	protected void setWarmUpTime(final long warmUpTime) {
+		this.warmUpTime = warmUpTime;
+	}
+
 	@Override
 	public boolean loadModel(final String pathOrURL, final String modelName)
 		throws FileNotFoundException
@@ -73,30 +121,239 @@ public abstract class DefaultModel<T extends RealType<T>> implements Model {
 		throws IllegalArgumentException, OutOfMemoryError
 	{
 
-		pool = Executors.newSingleThreadExecutor();
+		canceled = false;
 
-//		final Cursor<RandomAccessibleInterval<T>> cursor = Views.iterable(tiledView)
-//			.cursor();
+		if (tiledView == null) {
+			runSingleTile();
+		}
+		else {
+			runTiles();
+		}
+	}
+
+	private void runSingleTile() {
+		log.info("Processing tile " + (doneTileCount + 1) + "..");
+		execute();
+		upTileCount();
+	}
 
+	private void runTiles() {
+		final InputNode inputNode = getInputNodes().get(0);
+		final OutputNode outputNode = getOutputNodes().get(0);
+		tiledView.getProcessedTiles().clear();
+		tiledOutput = tiledView.getTiledOutput();
+		if (tiledOutput != null) tiledOutput.setAxes(outputNode.getFinalAxesArray());
+		collectedTileCount = 0;
 
-//		while (cursor.hasNext()) {
-//			final RandomAccessibleInterval<T> tile = cursor.next();
+		final int inputBatchDim = getBatchDimension(inputNode);
+		outputBatchDim = getOutputBatchDimension(inputNode, inputBatchDim,
+			outputNode);
+		usedTilesPerBatch = outputBatchDim < 0 ? 1 : computeTilesPerBatch();
+		if (usedTilesPerBatch > 1) {
+			log.info("Processing up to " + usedTilesPerBatch + " tiles per batch");
+		}
 
-//		CountDownLatch latch = new CountDownLatch(1);
-//		pool.execute(this::execute);
-		execute();
+		batchTileCounts.clear();
+		final Iterator<List<Object>> batches = new TileBatches(inputBatchDim);
+		final Consumer<List<Object>> results = outputData -> {
+			final int numTiles = batchTileCounts.poll();
+			if (outputData.isEmpty()) {
+				// the stages wrote the tiles into the output regions
+				for (int i = 0; i < numTiles; i++) {
+					collectedTileCount++;
+					upTileCount();
+				}
+			}
+			else {
+				addProcessedTiles((RandomAccessibleInterval<T>) outputData.get(0),
+					outputBatchDim, numTiles);
+			}
+		};
 
-		log.info("Processing tile " + (doneTileCount + 1) + "..");
+		if (pipelineQueueSize > 0) {
+			// more workers than batches would have nothing to do
+			final long numBatches = (Intervals.numElements(tiledView) +
+				usedTilesPerBatch - 1) / usedTilesPerBatch;
+			final int workers = (int) Math.min(numWorkers, numBatches);
+			if (workers > 1) {
+				log.info("Running the model on " + workers + " tiles in parallel");
+				prepareWorkers(workers);
+			}
+			TilePipeline.runPipelined(getStages(), batches, results,
+				pipelineQueueSize, Math.max(1, workers));
+		}
+		else {
+			while (batches.hasNext()) {
+				results.accept(TilePipeline.runSequential(getStages(), batches.next()));
+			}
+		}
+	}
+
+	/**
+	 * @return the dimension of the input data which can be used to stack
+	 *         multiple tiles, or -1 if the model input has no batch axis of
+	 *         variable size
+	 */
+	private int getBatchDimension(final InputNode node) {
+		final Tiling.TilingAction[] actions = node.getTilingActions();
+		final int[] mappingIndices = node.getMappingIndices();
+		for (int i = 0; i < actions.length; i++) {
+			if (actions[i] == Tiling.TilingAction.TILE_WITHOUT_PADDING && node
+				.getAxis(mappingIndices[i]).getAttributes().get("step") == null)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int getOutputBatchDimension(final InputNode inputNode,
+		final int inputBatchDim, final OutputNode outputNode)
+	{
+		if (inputBatchDim < 0) return -1;
+		final AxisType batchAxis = inputNode.getFinalAxesArray()[inputBatchDim];
+		final AxisType[] outputAxes = outputNode.getFinalAxesArray();
+		for (int i = 0; i < outputAxes.length; i++) {
+			if (outputAxes[i].equals(batchAxis)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Uses the requested number of tiles per batch or, if not set, as many
+	 * tiles as fit into a quarter of the currently available heap.
+	 */
+	private int computeTilesPerBatch() {
+		final long numTiles = Intervals.numElements(tiledView);
+		if (tilesPerBatch > 0) return (int) Math.max(1, Math.min(tilesPerBatch,
+			numTiles));
+		final long[] blockSize = tiledView.getBlockSize();
+		final long[] overlap = tiledView.getOverlap();
+		long tileBytes = BYTES_PER_TILE_PIXEL;
+		for (int d = 0; d < blockSize.length; d++) {
+			tileBytes *= blockSize[d] + 2 * overlap[d];
+		}
+		final Runtime runtime = Runtime.getRuntime();
+		final long available = runtime.maxMemory() - (runtime.totalMemory() -
+			runtime.freeMemory());
+		final long fitting = available / 4 / Math.max(1, tileBytes);
+		return (int) Math.max(1, Math.min(Math.min(fitting,
+			MAX_AUTO_TILES_PER_BATCH), numTiles));
+	}
+
+	private void addProcessedTiles(final RandomAccessibleInterval<T> output,
+		final int batchDim, final int numTiles)
+	{
+		if (numTiles == 1) {
+			addProcessedTile(output);
+			return;
+		}
+		final long tileBatchSize = output.dimension(batchDim) / numTiles;
+		final long[] min = Intervals.minAsLongArray(output);
+		final long[] max = Intervals.maxAsLongArray(output);
+		for (int i = 0; i < numTiles; i++) {
+			min[batchDim] = output.min(batchDim) + i * tileBatchSize;
+			max[batchDim] = min[batchDim] + tileBatchSize - 1;
+			addProcessedTile(Views.zeroMin(Views.interval(output, min, max)));
+		}
+	}
+
+	/**
+	 * Returns where the model output of the batch which is collected next
+	 * belongs if the tiles are written directly into the output image. The
+	 * stages can then copy each region of their output into its target in
+	 * {@link TilePipeline.Stages#collect(Object)} and return an empty list
+	 * instead of the output data, which avoids allocating an image per tile.
+	 *
+	 * @param batchDims size of the model output of the batch, in the dimension
+	 *          order of the output node data
+	 * @param type pixel type of the model output
+	 * @return the output image regions of the tiles in the batch, or null if the
+	 *         output has to be returned as data
+	 */
+	protected List<TiledOutput.Region<T>> getOutputRegions(final long[] batchDims,
+		final T type)
+	{
+		if (tiledView == null || tiledOutput == null || !TiledOutput.isSupported(
+			type)) return null;
+		final Integer numTiles = batchTileCounts.peek();
+		final long[] padding = tiledOutput.getPadding();
+		if (numTiles == null || batchDims.length != padding.length) return null;
+		final long[] tileDims = batchDims.clone();
+		if (numTiles > 1) tileDims[outputBatchDim] /= numTiles;
+		final List<TiledOutput.Region<T>> res = new ArrayList<>();
+		for (int i = 0; i < numTiles; i++) {
+			final RandomAccessibleInterval<T> target = tiledOutput.getTarget(
+				collectedTileCount + i, tileDims, type);
+			// tiles only covering the expanded border are dropped
+			if (target == null) continue;
+			final long[] offset = padding.clone();
+			if (numTiles > 1) offset[outputBatchDim] += i * tileDims[outputBatchDim];
+			res.add(new TiledOutput.Region<>(target, offset));
+		}
+		return res;
+	}
 
-		try {
-//			latch.await();
-			upTileCount();
+	/**
+	 * Writes the tile into the tiled output and drops it afterwards. Only if
+	 * the output is assembled from views, the tile is kept until the run ends.
+	 */
+	private void addProcessedTile(final RandomAccessibleInterval<T> tile) {
+		if (tiledOutput != null && TiledOutput.isSupported(Util
+			.getTypeFromInterval(tile)))
+		{
+			tiledOutput.write(collectedTileCount, tile);
 		}
-		catch (final IllegalArgumentException exc) {
-			pool.shutdownNow();
-			//FIXME fail
-//					fail();
-			throw  exc;
+		else {
+			tiledView.getProcessedTiles().add(tile);
+		}
+		collectedTileCount++;
+		upTileCount();
+	}
+
+	/**
+	 * Iterates over the tiles of the tiled view, stacking up to
+	 * {@link #usedTilesPerBatch} tiles along the batch dimension.
+	 */
+	private class TileBatches implements Iterator<List<Object>> {
+
+		private final LocalizingIntervalIterator tilePositions;
+		private final TiledView.TiledViewRandomAccess<T> tileAccess;
+		private final int batchDim;
+		private int preparedTileCount = 0;
+
+		private TileBatches(final int batchDim) {
+			this.tilePositions = new LocalizingIntervalIterator(tiledView);
+			// a single tile per batch is converted before the next one is
+			// accessed, so the tile view can be reused
+			this.tileAccess = tiledView.randomAccess(usedTilesPerBatch == 1);
+			this.batchDim = batchDim;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return tilePositions.hasNext() && !isCanceled();
+		}
+
+		@Override
+		public List<Object> next() {
+			final List<RandomAccessibleInterval<T>> batch = new ArrayList<>();
+			while (batch.size() < usedTilesPerBatch && tilePositions.hasNext()) {
+				tilePositions.fwd();
+				tileAccess.setPosition(tilePositions);
+				batch.add(tileAccess.get());
+			}
+			if (batch.size() == 1) {
+				log.info("Processing tile " + (preparedTileCount + 1) + "..");
+			}
+			else {
+				log.info("Processing tiles " + (preparedTileCount + 1) + "-" +
+					(preparedTileCount + batch.size()) + "..");
+			}
+			preparedTileCount += batch.size();
+			batchTileCounts.add(batch.size());
+			if (batch.size() == 1) return Collections.singletonList(batch.get(0));
+			return Collections.singletonList(Views.concatenate(batchDim, batch));
 		}
 	}
 
@@ -122,33 +379,107 @@ public abstract class DefaultModel<T extends RealType<T>> implements Model {
 //		outputNode.initialize(dataset);
 //	}
 
-	// TODO this is the tensorflow runner
-	public abstract void execute() throws IllegalArgumentException, OutOfMemoryError;
+	/**
+	 * @return the stages converting the node data, running the model and
+	 *         converting the model output back. The execution stage has to
+	 *         support as many concurrent calls as requested by the last call of
+	 *         {@link #prepareWorkers(int)}.
+	 */
+	protected abstract TilePipeline.Stages<?, ?> getStages();
+
+	/**
+	 * Called before a tiled run executes the model on {@code numWorkers > 1}
+	 * tiles in parallel. Models which need a separate instance per worker
+	 * load them here and dispose them with the model.
+	 */
+	protected void prepareWorkers(final int numWorkers) {}
+
+	public void execute() throws IllegalArgumentException, OutOfMemoryError {
+		final List<Object> inputData = new ArrayList<>();
+		for (InputNode node : getInputNodes()) {
+			inputData.add(node.getData());
+		}
+		final List<Object> outputData = TilePipeline.runSequential(getStages(),
+			inputData);
+		for (int i = 0; i < outputData.size(); i++) {
+			getOutputNodes().get(i).setData(outputData.get(i));
+		}
+	}
+
+	@Override
+	public void setPipelineQueueSize(final int queueSize) {
+		pipelineQueueSize = queueSize;
+	}
+
+	@Override
+	public void setNumWorkers(final int numWorkers) {
+		this.numWorkers = Math.max(1, numWorkers);
+	}
+
+	@Override
+	public void reset() {
+		canceled = false;
+		pipelineQueueSize = 2;
+		numWorkers = 1;
+		tilesPerBatch = 0;
+		usedTilesPerBatch = 1;
+		tiledView = null;
+		tiledOutput = null;
+		for (InputNode node : getInputNodes()) {
+			node.setData(null);
+			node.setDataMapping(null);
+			for (int i = 0; i < node.getAxesArray().length; i++) {
+				node.getAxis(i).getAttributes().remove("actual");
+			}
+		}
+		for (OutputNode node : getOutputNodes()) {
+			node.setData(null);
+			node.setDataMapping(null);
+		}
+	}
+
+	@Override
+	public void setStatus(final Task status) {
+		this.status = status;
+	}
+
+	@Override
+	public void setTilesPerBatch(final int tilesPerBatch) {
+		this.tilesPerBatch = tilesPerBatch;
+	}
+
+	@Override
+	public int getTilesPerBatch() {
+		return usedTilesPerBatch;
+	}
 
 	@Override
 	public abstract boolean isInitialized();
 
+	@Override
+	public void setTiledView(final AdvancedTiledView tiledView) {
+		this.tiledView = tiledView;
+	}
+
 	@Override
 	public void resetTileCount() {
 		doneTileCount = 0;
-		//FIXME progress
-//		status.setCurrentStep(doneTileCount);
+		if (status != null) status.setCurrentStep(doneTileCount);
 	}
 
 	protected void upTileCount() {
 		doneTileCount++;
-		//FIXME progress
-//		status.setCurrentStep(doneTileCount);
+		if (status != null) status.setCurrentStep(doneTileCount);
 	}
 
 	@Override
 	public void cancel(String reason) {
-		pool.shutdownNow();
+		canceled = true;
 	}
 
 	@Override
 	public boolean isCanceled() {
-		return false;
+		return canceled;
 	}
 
 	@Override
@@ -156,14 +487,6 @@ public abstract class DefaultModel<T extends RealType<T>> implements Model {
 		return null;
 	}
 
-	@Override
-	public void dispose() {
-		if (pool != null) {
-			pool.shutdown();
-		}
-		pool = null;
-	}
-
 	public void clear() {
 		inputNodes.clear();
 		outputNodes.clear();
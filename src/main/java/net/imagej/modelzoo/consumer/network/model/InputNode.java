@@ -31,6 +31,7 @@ package net.imagej.modelzoo.consumer.network.model;
 
 import net.imagej.axis.AxisType;
 import net.imagej.modelzoo.consumer.task.Task;
+import net.imagej.modelzoo.consumer.tiling.Tiling;
 import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
@@ -87,6 +88,24 @@ public class InputNode extends ModelZooNode {
 		return true;
 	}
 
+	public Tiling.TilingAction[] getTilingActions() {
+		int[] mappingIndices = getMappingIndices();
+		Tiling.TilingAction[] actions = new Tiling.TilingAction[mappingIndices.length];
+		for (int i = 0; i < actions.length; i++) {
+			Object action = getAxis(mappingIndices[i]).getAttributes().get("tiling");
+			actions[i] = action == null ? Tiling.TilingAction.NO_TILING : (Tiling.TilingAction) action;
+		}
+		return actions;
+	}
+
+	public boolean getTilingAllowed() {
+		if(!(getData() instanceof RandomAccessibleInterval)) return false;
+		for (Tiling.TilingAction action : getTilingActions()) {
+			if(action != Tiling.TilingAction.NO_TILING) return true;
+		}
+		return false;
+	}
+
 	private RandomAccessibleInterval addAxesIfNeeded(RandomAccessibleInterval img) {
 		AxisType[] axes = getAxesArray();
 		while(img.numDimensions() < axes.length) {
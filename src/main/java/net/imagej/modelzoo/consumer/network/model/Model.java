@@ -29,7 +29,8 @@
 
 package net.imagej.modelzoo.consumer.network.model;
 
-import net.imglib2.TiledView;
+import net.imagej.modelzoo.consumer.task.Task;
+import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
 import org.scijava.Cancelable;
 import org.scijava.Disposable;
 
@@ -51,6 +52,67 @@ public interface Model extends
 
 	void resetTileCount();
 
+	/**
+	 * Sets the tiled view of the first input node which will be processed tile
+	 * by tile when running the model. The processed tiles are written into
+	 * {@link AdvancedTiledView#getTiledOutput()} if the view has one, otherwise
+	 * they are collected in {@link AdvancedTiledView#getProcessedTiles()}.
+	 * Setting it to {@code null}
+	 * runs the model on the complete input data.
+	 */
+	void setTiledView(AdvancedTiledView tiledView);
+
+	/**
+	 * Sets how many converted tiles may wait for the next stage when running
+	 * tiles in a pipeline. With a queue size of {@code 0}, the tiles are
+	 * converted, processed and collected one after another.
+	 */
+	void setPipelineQueueSize(int queueSize);
+
+	/**
+	 * Sets on how many tiles the model runs in parallel. Each worker uses its
+	 * own model instance, sharing the available cores.
+	 */
+	void setNumWorkers(int numWorkers);
+
+	/**
+	 * Sets the task whose current step is updated with the number of processed
+	 * tiles.
+	 */
+	void setStatus(Task status);
+
+	/**
+	 * Sets how many tiles are stacked along the batch axis of the input and
+	 * processed in one model run. With {@code 0}, the number of tiles per batch
+	 * is derived from the available memory.
+	 */
+	void setTilesPerBatch(int tilesPerBatch);
+
+	/**
+	 * @return the number of tiles per batch used in the last tiled run
+	 */
+	int getTilesPerBatch();
+
+	/**
+	 * Sets whether the model is run once on dummy input of the minimal input
+	 * size after loading it, so that the first tile does not pay for
+	 * initializing the model.
+	 */
+	void setWarmUp(boolean warmUp);
+
+	/**
+	 * @return the time the warm-up after loading the model took in
+	 *         milliseconds, -1 if the model was not warmed up
+	 */
+	long getWarmUpTime();
+
+	/**
+	 * Resets what previous runs left in the model: the node data and mappings,
+	 * the actual input sizes and the tiling and worker settings. Called before
+	 * each prediction, since a loaded model may be reused for many inputs.
+	 */
+	void reset();
+
 	default void loadLibrary(){}
 
 	boolean libraryLoaded();
@@ -0,0 +1,293 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.network.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps loaded models alive between predictions, so that running the same
+ * model again does not load it again. Models are registered by a key
+ * identifying the model file (e.g. the cache name derived from its MD5 hash)
+ * and counted while in use. Unused models are disposed after
+ * {@link #getIdleTimeout()} milliseconds, and if more than
+ * {@link #getMaxResident()} models are loaded, the least recently used unused
+ * model is disposed.
+ * <p>
+ * A model may be acquired by multiple users at the same time, who have to
+ * synchronize running it.
+ * </p>
+ */
+public class ModelRegistry {
+
+	public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+	public static final int DEFAULT_MAX_RESIDENT = 2;
+
+	private static final ModelRegistry instance = new ModelRegistry();
+
+	// in order of last use
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private int maxResident = DEFAULT_MAX_RESIDENT;
+	private ScheduledExecutorService evictionTimer;
+	private ScheduledFuture<?> scheduledEviction;
+
+	/**
+	 * @return the registry shared by all commands of this JVM
+	 */
+	public static ModelRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the registered model of the given key or loads it. The model is
+	 * only registered if it could be loaded, otherwise the loaded (and not
+	 * initialized) model is returned without registering it.
+	 *
+	 * @param key identifies the model file
+	 * @param loader loads the model if it is not registered yet
+	 * @return the model, has to be passed to {@link #release(Model)} when it is
+	 *         not used anymore
+	 */
+	public Model acquire(final String key, final Supplier<Model> loader) {
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+			if (entry != null && entry.model.isInitialized()) {
+				entry.users++;
+				return entry.model;
+			}
+			if (entry != null) entries.remove(key);
+		}
+		// loading can take a while, do not block other models meanwhile
+		final Model model = loader.get();
+		if (model == null || !model.isInitialized()) return model;
+		final List<Model> evicted;
+		final Model res;
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+			if (entry != null && entry.model.isInitialized()) {
+				// loaded concurrently, use the registered one
+				entry.users++;
+				res = entry.model;
+				evicted = new ArrayList<>();
+				evicted.add(model);
+			}
+			else {
+				final Entry loaded = new Entry(model);
+				loaded.users = 1;
+				entries.put(key, loaded);
+				res = model;
+				evicted = evict();
+			}
+		}
+		disposeAll(evicted);
+		return res;
+	}
+
+	/**
+	 * Marks the model as not used by the caller anymore. Models which are not
+	 * registered are ignored.
+	 */
+	public void release(final Model model) {
+		final List<Model> evicted;
+		synchronized (this) {
+			final Entry entry = find(model);
+			if (entry == null) return;
+			entry.users = Math.max(0, entry.users - 1);
+			entry.lastUsed = System.nanoTime();
+			evicted = evict();
+			if (entry.users == 0) scheduleEviction(TimeUnit.MILLISECONDS.toNanos(
+				idleTimeout));
+		}
+		disposeAll(evicted);
+	}
+
+	/**
+	 * @return whether a loaded model is registered for the key
+	 */
+	public synchronized boolean contains(final String key) {
+		final Entry entry = entries.get(key);
+		return entry != null && entry.model.isInitialized();
+	}
+
+	/**
+	 * @return whether the model is registered, in which case it must not be
+	 *         disposed by its users but released
+	 */
+	public synchronized boolean isRegistered(final Model model) {
+		return find(model) != null;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Disposes all models which are not in use.
+	 */
+	public void clear() {
+		final List<Model> evicted = new ArrayList<>();
+		synchronized (this) {
+			final Iterator<Entry> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				final Entry entry = iterator.next();
+				if (entry.users > 0) continue;
+				evicted.add(entry.model);
+				iterator.remove();
+			}
+		}
+		disposeAll(evicted);
+	}
+
+	public synchronized long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public synchronized void setIdleTimeout(final long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized int getMaxResident() {
+		return maxResident;
+	}
+
+	public void setMaxResident(final int maxResident) {
+		final List<Model> evicted;
+		synchronized (this) {
+			this.maxResident = maxResident;
+			evicted = evict();
+		}
+		disposeAll(evicted);
+	}
+
+	private Entry find(final Model model) {
+		for (final Entry entry : entries.values()) {
+			if (entry.model == model) return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes unused models which timed out or exceed the maximal number of
+	 * resident models, least recently used first.
+	 *
+	 * @return the removed models, to be disposed outside of the lock
+	 */
+	private List<Model> evict() {
+		final List<Model> evicted = new ArrayList<>();
+		final long now = System.nanoTime();
+		final long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		int resident = entries.size();
+		final Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			final Entry entry = iterator.next();
+			if (entry.users > 0) continue;
+			if (resident > maxResident || now - entry.lastUsed >= timeout ||
+				!entry.model.isInitialized())
+			{
+				evicted.add(entry.model);
+				iterator.remove();
+				resident--;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return the nanoseconds until the next unused model times out, -1 if no
+	 *         model is unused
+	 */
+	private long getNextEvictionDelay() {
+		final long now = System.nanoTime();
+		final long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		long delay = -1;
+		for (final Entry entry : entries.values()) {
+			if (entry.users > 0) continue;
+			final long remaining = Math.max(0, timeout - (now - entry.lastUsed));
+			if (delay < 0 || remaining < delay) delay = remaining;
+		}
+		return delay;
+	}
+
+	private void scheduleEviction(final long delayNanos) {
+		if (evictionTimer == null) {
+			evictionTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "model-registry-eviction");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		// a single pending check, running when the first unused model times out
+		if (scheduledEviction != null && !scheduledEviction.isDone()) {
+			if (scheduledEviction.getDelay(TimeUnit.NANOSECONDS) <= delayNanos) return;
+			scheduledEviction.cancel(false);
+		}
+		scheduledEviction = evictionTimer.schedule(this::evictIdle, delayNanos,
+			TimeUnit.NANOSECONDS);
+	}
+
+	private void evictIdle() {
+		final List<Model> evicted;
+		synchronized (this) {
+			scheduledEviction = null;
+			evicted = evict();
+			// models used again meanwhile are checked again when they time out
+			final long delay = getNextEvictionDelay();
+			if (delay >= 0) scheduleEviction(delay);
+		}
+		disposeAll(evicted);
+	}
+
+	private static void disposeAll(final List<Model> models) {
+		for (final Model model : models) {
+			model.dispose();
+		}
+	}
+
+	private static class Entry {
+
+		private final Model model;
+		private int users = 0;
+		// System.nanoTime() of the last release
+		private long lastUsed = System.nanoTime();
+
+		private Entry(final Model model) {
+			this.model = model;
+		}
+	}
+}
@@ -87,6 +87,28 @@ public class ModelZooNode<T extends RealType<T>> {
 		return node.get(index);
 	}
 
+	/**
+	 * @return the axis of the given type, null if the node has no such axis
+	 */
+	public ModelZooAxis getAxis(AxisType type) {
+		for (ModelZooAxis axis : node) {
+			if(axis.getType().equals(type)) return axis;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the axis types of the node data in the order of the data dimensions
+	 */
+	public AxisType[] getFinalAxesArray() {
+		int[] mappingIndices = getMappingIndices();
+		AxisType[] res = new AxisType[mappingIndices.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = node.get(mappingIndices[i]).getType();
+		}
+		return res;
+	}
+
 	public void setDataMapping(List<AxisType> axisTypes) {
 		this.mapping = axisTypes;
 	}
@@ -59,7 +59,8 @@ public class OutputNode extends ModelZooNode {
 			Map<String, Object> attrs = getReference().getAxis(mappingIndices[i]).getAttributes();
 			Object actual = attrs.get("actual");
 			if(actual == null) continue;
-			img = reduceDimToSize(img, i, (long)actual);
+			Object scale = getAxis(mappingIndices[i]).getAttributes().get("scale");
+			img = reduceDimToSize(img, i, (long)actual * (scale == null || (int) scale < 1 ? 1 : (int) scale));
 		}
 		return img;
 	}
@@ -0,0 +1,384 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.network.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs tiles through the three stages of a model execution: converting the
+ * tile data into the model input, executing the model and collecting the
+ * model output. In pipelined mode, the input of the next tile is converted
+ * while the model runs on the current tile and the output of the previous tile
+ * is collected. The stages are connected by bounded queues, so at most
+ * {@code queueSize} converted inputs and outputs are waiting at the same time.
+ * Multiple workers can execute the model on different tiles in parallel, in
+ * which case {@link Stages#execute(Object)} has to be thread safe. Since
+ * outputs are collected in the order of the tiles, at most
+ * {@code queueSize + numWorkers} tiles are prepared but not yet collected, so
+ * a slow tile does not let the outputs of the following tiles pile up.
+ *
+ * @param <I> model specific input representation (e.g. tensors)
+ * @param <O> model specific output representation (e.g. tensors)
+ */
+public class TilePipeline<I, O> {
+
+	public interface Stages<I, O> {
+
+		/**
+		 * Converts the data of all input nodes into the model input.
+		 */
+		I prepare(List<Object> inputData);
+
+		/**
+		 * Runs the model on the converted input. Called concurrently if the
+		 * pipeline runs with multiple workers.
+		 */
+		O execute(I inputs);
+
+		/**
+		 * Converts the model output into the data of all output nodes.
+		 */
+		List<Object> collect(O outputs);
+
+		void releaseInputs(I inputs);
+
+		void releaseOutputs(O outputs);
+	}
+
+	private static final long POLL_MILLIS = 100;
+
+	private final Stages<I, O> stages;
+	private final int numWorkers;
+	private final BlockingQueue<Slot<I>> prepared;
+	private final BlockingQueue<Slot<O>> executed;
+	// tiles which are prepared but not collected yet
+	private final Semaphore inFlight;
+	private volatile int maxPending = 0;
+	private volatile Throwable failure;
+	private volatile boolean aborted = false;
+
+	TilePipeline(final Stages<I, O> stages, final int queueSize,
+		final int numWorkers)
+	{
+		this.stages = stages;
+		this.numWorkers = numWorkers;
+		prepared = new ArrayBlockingQueue<>(queueSize);
+		executed = new ArrayBlockingQueue<>(queueSize);
+		inFlight = new Semaphore(queueSize + numWorkers);
+	}
+
+	/**
+	 * Runs the stages one after another on the calling thread.
+	 *
+	 * @return the data of all output nodes
+	 */
+	public static <I, O> List<Object> runSequential(final Stages<I, O> stages,
+		final List<Object> inputData)
+	{
+		final I inputs = stages.prepare(inputData);
+		O outputs = null;
+		try {
+			outputs = stages.execute(inputs);
+			return stages.collect(outputs);
+		}
+		finally {
+			stages.releaseInputs(inputs);
+			if (outputs != null) stages.releaseOutputs(outputs);
+		}
+	}
+
+	/**
+	 * Runs all tiles through the stages. Input conversion and output collection
+	 * run on their own threads, the model is executed on the calling thread.
+	 * The results are passed to {@code results} in the order of the tiles.
+	 *
+	 * @param tiles the input data of all input nodes, one list per tile
+	 * @param results receives the output data of all output nodes, one list per
+	 *          tile
+	 * @param queueSize the maximum number of tiles waiting between two stages
+	 */
+	public static <I, O> void runPipelined(final Stages<I, O> stages,
+		final Iterator<List<Object>> tiles, final Consumer<List<Object>> results,
+		final int queueSize)
+	{
+		runPipelined(stages, tiles, results, queueSize, 1);
+	}
+
+	/**
+	 * Runs all tiles through the stages like
+	 * {@link #runPipelined(Stages, Iterator, Consumer, int)}, executing the
+	 * model on up to {@code numWorkers} tiles at the same time. The results are
+	 * still passed to {@code results} in the order of the tiles.
+	 */
+	public static <I, O> void runPipelined(final Stages<I, O> stages,
+		final Iterator<List<Object>> tiles, final Consumer<List<Object>> results,
+		final int queueSize, final int numWorkers)
+	{
+		final int workers = Math.max(1, numWorkers);
+		new TilePipeline<>(stages, Math.max(workers, queueSize), workers).run(
+			tiles, results);
+	}
+
+	void run(final Iterator<List<Object>> tiles,
+		final Consumer<List<Object>> results)
+	{
+		final ExecutorService stagePool = Executors.newFixedThreadPool(1 +
+			numWorkers);
+		try {
+			final Future<?> preparing = stagePool.submit(() -> prepareAll(tiles));
+			final Future<?> collecting = stagePool.submit(() -> collectAll(results));
+			final List<Future<?>> workers = new ArrayList<>();
+			for (int i = 1; i < numWorkers; i++) {
+				workers.add(stagePool.submit(this::executeAll));
+			}
+			executeAll();
+			for (final Future<?> worker : workers) {
+				worker.get();
+			}
+			put(executed, Slot.end());
+			preparing.get();
+			collecting.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(e);
+		}
+		catch (final ExecutionException e) {
+			fail(e.getCause());
+		}
+		catch (final RuntimeException | Error e) {
+			fail(e);
+		}
+		finally {
+			aborted = true;
+			shutdown(stagePool);
+			releaseRemaining();
+		}
+		if (failure != null) rethrow(failure);
+	}
+
+	private void shutdown(final ExecutorService stagePool) {
+		stagePool.shutdownNow();
+		try {
+			// the stages have to be done before releasing what is left in the queues
+			stagePool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void prepareAll(final Iterator<List<Object>> tiles) {
+		try {
+			long index = 0;
+			while (!aborted && tiles.hasNext()) {
+				if (!acquireTile()) return;
+				final I inputs = stages.prepare(tiles.next());
+				if (!put(prepared, new Slot<>(inputs, index++))) {
+					stages.releaseInputs(inputs);
+					return;
+				}
+			}
+			put(prepared, Slot.end());
+		}
+		catch (final RuntimeException | Error e) {
+			fail(e);
+		}
+	}
+
+	private void executeAll() {
+		Slot<I> slot;
+		while ((slot = take(prepared)) != null) {
+			if (slot.isEnd()) {
+				// pass the end on to the other workers
+				put(prepared, slot);
+				return;
+			}
+			final O outputs;
+			try {
+				outputs = stages.execute(slot.value);
+			}
+			catch (final RuntimeException | Error e) {
+				fail(e);
+				throw e;
+			}
+			finally {
+				stages.releaseInputs(slot.value);
+			}
+			if (!put(executed, new Slot<>(outputs, slot.index))) {
+				stages.releaseOutputs(outputs);
+				return;
+			}
+		}
+	}
+
+	private void collectAll(final Consumer<List<Object>> results) {
+		// workers may finish tiles out of order
+		final Map<Long, Slot<O>> pending = new HashMap<>();
+		try {
+			long next = 0;
+			Slot<O> slot;
+			while ((slot = take(executed)) != null && !slot.isEnd()) {
+				pending.put(slot.index, slot);
+				maxPending = Math.max(maxPending, pending.size());
+				while ((slot = pending.remove(next)) != null) {
+					next++;
+					try {
+						results.accept(stages.collect(slot.value));
+					}
+					finally {
+						stages.releaseOutputs(slot.value);
+						inFlight.release();
+					}
+				}
+			}
+		}
+		catch (final RuntimeException | Error e) {
+			fail(e);
+		}
+		finally {
+			for (final Slot<O> remaining : pending.values()) {
+				stages.releaseOutputs(remaining.value);
+			}
+		}
+	}
+
+	/**
+	 * @return the largest number of outputs which waited for the output of an
+	 *         earlier tile to be collected
+	 */
+	int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * Waits until less than {@code queueSize + numWorkers} tiles are in flight.
+	 *
+	 * @return false if the pipeline was aborted meanwhile
+	 */
+	private boolean acquireTile() {
+		try {
+			while (!aborted) {
+				if (inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) return true;
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private <S> boolean put(final BlockingQueue<Slot<S>> queue,
+		final Slot<S> slot)
+	{
+		try {
+			while (!aborted) {
+				if (queue.offer(slot, POLL_MILLIS, TimeUnit.MILLISECONDS)) return true;
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private <S> Slot<S> take(final BlockingQueue<Slot<S>> queue) {
+		try {
+			while (!aborted) {
+				final Slot<S> slot = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (slot != null) return slot;
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	private void fail(final Throwable e) {
+		if (failure == null) failure = e;
+		aborted = true;
+	}
+
+	private void releaseRemaining() {
+		Slot<I> input;
+		while ((input = prepared.poll()) != null) {
+			if (!input.isEnd()) stages.releaseInputs(input.value);
+		}
+		Slot<O> output;
+		while ((output = executed.poll()) != null) {
+			if (!output.isEnd()) stages.releaseOutputs(output.value);
+		}
+	}
+
+	private static void rethrow(final Throwable e) {
+		if (e instanceof RuntimeException) throw (RuntimeException) e;
+		if (e instanceof Error) throw (Error) e;
+		throw new IllegalStateException(e);
+	}
+
+	private static class Slot<S> {
+
+		private final S value;
+		private final long index;
+		private final boolean end;
+
+		private Slot(final S value, final long index) {
+			this(value, index, false);
+		}
+
+		private Slot(final S value, final long index, final boolean end) {
+			this.value = value;
+			this.index = index;
+			this.end = end;
+		}
+
+		private static <S> Slot<S> end() {
+			return new Slot<>(null, -1, true);
+		}
+
+		private boolean isEnd() {
+			return end;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.network.model.tensorflow;
+
+import org.tensorflow.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps direct buffers for staging tensor data, keyed by data type and shape.
+ * When running a model on tiles of the same shape, the buffer of one tile can
+ * be reused for the next one instead of allocating native memory per tile.
+ * Released buffers are kept as long as the pool holds less than
+ * {@link #getMaxBytes()} bytes, larger amounts are left to the garbage
+ * collector.
+ */
+public class TensorBufferPool {
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private final Map<Key, Deque<ByteBuffer>> buffers = new HashMap<>();
+	private long maxBytes;
+	private long pooledBytes = 0;
+
+	public TensorBufferPool() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public TensorBufferPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return a direct buffer in native byte order with room for a tensor of
+	 *         the given type and shape
+	 */
+	public synchronized ByteBuffer acquire(DataType type, long[] shape) {
+		final Deque<ByteBuffer> free = buffers.get(new Key(type, shape));
+		if (free != null && !free.isEmpty()) {
+			final ByteBuffer buffer = free.pop();
+			pooledBytes -= buffer.capacity();
+			buffer.clear();
+			return buffer;
+		}
+		final long bytes = numBytes(type, shape);
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Tensor of shape " + Arrays.toString(
+				shape) + " is too large for a single buffer");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns a buffer acquired for the given type and shape to the pool.
+	 */
+	public synchronized void release(DataType type, long[] shape,
+		ByteBuffer buffer)
+	{
+		if (pooledBytes + buffer.capacity() > maxBytes) return;
+		buffers.computeIfAbsent(new Key(type, shape), k -> new ArrayDeque<>())
+			.push(buffer);
+		pooledBytes += buffer.capacity();
+	}
+
+	public synchronized void clear() {
+		buffers.clear();
+		pooledBytes = 0;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		if (pooledBytes > maxBytes) clear();
+	}
+
+	public static long numBytes(DataType type, long[] shape) {
+		long res = elementBytes(type);
+		for (long dim : shape) {
+			res *= dim;
+		}
+		return res;
+	}
+
+	private static int elementBytes(DataType type) {
+		switch (type) {
+			case UINT8:
+			case BOOL:
+				return 1;
+			case FLOAT:
+			case INT32:
+				return 4;
+			case DOUBLE:
+			case INT64:
+				return 8;
+			default:
+				throw new IllegalArgumentException("Unsupported tensor type " + type);
+		}
+	}
+
+	private static class Key {
+
+		private final DataType type;
+		private final long[] shape;
+
+		private Key(DataType type, long[] shape) {
+			this.type = type;
+			this.shape = shape.clone();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			return type == other.type && Arrays.equals(shape, other.shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + Arrays.hashCode(shape);
+		}
+	}
+}
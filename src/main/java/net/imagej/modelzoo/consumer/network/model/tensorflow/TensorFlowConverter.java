@@ -29,29 +29,64 @@
 
 package net.imagej.modelzoo.consumer.network.model.tensorflow;
 
+import net.imagej.ImgPlus;
 import net.imagej.axis.AxisType;
 import net.imagej.modelzoo.consumer.converter.RealIntConverter;
 import net.imagej.tensorflow.Tensors;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 import org.tensorflow.DataType;
 import org.tensorflow.Tensor;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class TensorFlowConverter {
 
 	public static <T extends RealType<T>>
 		RandomAccessibleInterval<T> fromTensor(final Tensor tensor, final int[] mapping) {
+		return fromTensor(tensor, mapping, null);
+	}
+
+	/**
+	 * Converts the tensor into an image. Float tensors are written into a new
+	 * {@link ArrayImg} in image dimension order, staging the values in a buffer
+	 * of the pool if the tensor layout differs from the image layout.
+	 */
+	public static <T extends RealType<T>>
+		RandomAccessibleInterval<T> fromTensor(final Tensor tensor, final int[] mapping, TensorBufferPool pool) {
+		final long[] dims = getImageDims(tensor, mapping);
+		if (tensor.dataType().equals(DataType.FLOAT) && dims != null) {
+			final Img<FloatType> output = ArrayImgs.floats(dims);
+			fromTensor(tensor, mapping, output, pool);
+			return (RandomAccessibleInterval<T>) output;
+		}
 		if (tensor.dataType().equals(DataType.DOUBLE)) {
 			return Tensors.imgDouble(tensor, mapping);
 		}
@@ -70,16 +105,201 @@ public class TensorFlowConverter {
 		return null;
 	}
 
+	/**
+	 * Writes the values of a float tensor into the destination, which has to
+	 * have the size of the tensor when mapping image dimension {@code i} to
+	 * tensor dimension {@code mapping[i]}. Float array images with a matching
+	 * layout receive the tensor data in one bulk copy, other destinations are
+	 * filled from a direct buffer taken from the pool if one is given.
+	 */
+	public static <T extends RealType<T>> void fromTensor(final Tensor tensor,
+		final int[] mapping, final RandomAccessibleInterval<T> destination,
+		TensorBufferPool pool)
+	{
+		if (!tensor.dataType().equals(DataType.FLOAT)) {
+			throw new IllegalArgumentException("Cannot write tensor of type " +
+				tensor.dataType() + " into a destination image");
+		}
+		final long[] shape = getShape(destination, mapping);
+		if (shape == null || !Arrays.equals(shape, tensor.shape())) {
+			throw new IllegalArgumentException("Destination of size " + Arrays
+				.toString(Intervals.dimensionsAsLongArray(destination)) +
+				" does not match tensor of shape " + Arrays.toString(tensor.shape()));
+		}
+		final float[] array = getFloatArray(destination, mapping);
+		if (array != null) {
+			tensor.writeTo(FloatBuffer.wrap(array, 0, tensor.numElements()));
+			return;
+		}
+		fromTensor(tensor, mapping, Collections.singletonList(destination),
+			Collections.singletonList(new long[mapping.length]), pool);
+	}
+
+	/**
+	 * Writes regions of a float tensor into the destinations, e.g. the tiles of
+	 * a batch without their padding into the regions of the output image they
+	 * belong to. The tensor values are staged once in a direct buffer taken
+	 * from the pool if one is given.
+	 *
+	 * @param destinations the images the regions are written to
+	 * @param offsets the position of each region in the tensor, in image
+	 *          dimension order
+	 */
+	public static <T extends RealType<T>> void fromTensor(final Tensor tensor,
+		final int[] mapping,
+		final List<? extends RandomAccessibleInterval<T>> destinations,
+		final List<long[]> offsets, TensorBufferPool pool)
+	{
+		if (!tensor.dataType().equals(DataType.FLOAT)) {
+			throw new IllegalArgumentException("Cannot write tensor of type " +
+				tensor.dataType() + " into a destination image");
+		}
+		final long[] dims = getImageDims(tensor, mapping);
+		if (dims == null) {
+			throw new IllegalArgumentException("Mapping " + Arrays.toString(
+				mapping) + " does not match tensor of shape " + Arrays.toString(tensor
+					.shape()));
+		}
+		for (int i = 0; i < destinations.size(); i++) {
+			final RandomAccessibleInterval<T> destination = destinations.get(i);
+			final long[] offset = offsets.get(i);
+			for (int d = 0; d < dims.length; d++) {
+				if (offset[d] < 0 || offset[d] + destination.dimension(d) > dims[d]) {
+					throw new IllegalArgumentException("Region of size " + Arrays
+						.toString(Intervals.dimensionsAsLongArray(destination)) + " at " +
+						Arrays.toString(offset) + " exceeds tensor of shape " + Arrays
+							.toString(tensor.shape()));
+				}
+			}
+		}
+		final long[] shape = tensor.shape();
+		final ByteBuffer buffer = pool != null ? pool.acquire(DataType.FLOAT,
+			shape) : ByteBuffer.allocateDirect((int) TensorBufferPool.numBytes(
+				DataType.FLOAT, shape)).order(ByteOrder.nativeOrder());
+		try {
+			final FloatBuffer values = buffer.asFloatBuffer();
+			tensor.writeTo(values);
+			for (int i = 0; i < destinations.size(); i++) {
+				writeRegion(values, shape, mapping, destinations.get(i), offsets.get(
+					i));
+			}
+		}
+		finally {
+			if (pool != null) pool.release(DataType.FLOAT, shape, buffer);
+		}
+	}
+
+	/**
+	 * Copies the region of the tensor values at the given offset into the
+	 * destination, one tensor row at a time.
+	 */
+	private static <T extends RealType<T>> void writeRegion(
+		final FloatBuffer values, final long[] shape, final int[] mapping,
+		final RandomAccessibleInterval<T> destination, final long[] offset)
+	{
+		final int n = shape.length;
+		if (n == 0) {
+			Views.iterable(destination).firstElement().setReal(values.get(0));
+			return;
+		}
+		// strides of the row-major tensor layout
+		final long[] strides = new long[n];
+		long stride = 1;
+		for (int k = n - 1; k >= 0; k--) {
+			strides[k] = stride;
+			stride *= shape[k];
+		}
+		final long[] tensorOffset = new long[n];
+		for (int i = 0; i < n; i++) {
+			tensorOffset[mapping[i]] = offset[i];
+		}
+		// view dimension k is tensor dimension n - 1 - k
+		final RandomAccessibleInterval<T> view = toTensorOrder(destination,
+			mapping);
+		final long[] min = Intervals.minAsLongArray(view);
+		final long rowLength = view.dimension(0);
+		final Cursor<T> cursor = Views.flatIterable(view).cursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			long index = 0;
+			for (int k = 0; k < n; k++) {
+				index += (cursor.getLongPosition(k) - min[k] + tensorOffset[n - 1 -
+					k]) * strides[n - 1 - k];
+			}
+			values.position((int) index);
+			cursor.get().setReal(values.get());
+			for (long x = 1; x < rowLength; x++) {
+				cursor.next().setReal(values.get());
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the image a tensor is converted into, image dimension
+	 *         {@code i} being tensor dimension {@code mapping[i]}, or null if
+	 *         the mapping is not a permutation of the tensor dimensions
+	 */
+	public static long[] getImageDims(final Tensor tensor, final int[] mapping) {
+		final long[] shape = tensor.shape();
+		if (mapping.length != shape.length) return null;
+		final long[] dims = new long[mapping.length];
+		final boolean[] used = new boolean[shape.length];
+		for (int i = 0; i < dims.length; i++) {
+			if (mapping[i] < 0 || mapping[i] >= shape.length || used[mapping[i]]) return null;
+			used[mapping[i]] = true;
+			dims[i] = shape[mapping[i]];
+		}
+		return dims;
+	}
+
+	/**
+	 * @return the backing array of a float array image whose layout matches the
+	 *         tensor layout, otherwise null
+	 */
+	private static float[] getFloatArray(RandomAccessibleInterval image,
+		final int[] mapping)
+	{
+		if (image instanceof ImgPlus) image = ((ImgPlus) image).getImg();
+		if (!(image instanceof ArrayImg)) return null;
+		if (!(((ArrayImg) image).firstElement() instanceof FloatType)) return null;
+		final int n = image.numDimensions();
+		for (int i = 0; i < n; i++) {
+			if (mapping[i] != n - 1 - i) return null;
+		}
+		final Object access = ((ArrayImg) image).update(null);
+		if (!(access instanceof ArrayDataAccess)) return null;
+		final Object data = ((ArrayDataAccess) access).getCurrentStorageArray();
+		return data instanceof float[] ? (float[]) data : null;
+	}
+
 	public static <T extends RealType<T>> Tensor imageToTensor(
 			RandomAccessibleInterval<T> image, final int[] mapping)
 	{
+		return imageToTensor(image, mapping, null);
+	}
 
-		Tensor tensor;
+	/**
+	 * Converts the image into a tensor. If a pool is given, images converted to
+	 * float tensors are copied into a pooled direct buffer instead of a newly
+	 * allocated array.
+	 */
+	public static <T extends RealType<T>> Tensor imageToTensor(
+			RandomAccessibleInterval<T> image, final int[] mapping, TensorBufferPool pool)
+	{
+
+		Tensor tensor = arrayImgToTensor(image, mapping);
+		if (tensor != null) return tensor;
+		// a random access on the image might not be positioned inside of it
+		final T type = Util.getTypeFromInterval(image);
+		if (pool != null && isConvertedToFloat(type)) {
+			tensor = copyToFloatTensor(image, mapping, pool);
+			if (tensor != null) return tensor;
+		}
 		try {
 			tensor = Tensors.tensor(image, mapping);
 		}
 		catch (IllegalArgumentException e) {
-			if (image.randomAccess().get() instanceof UnsignedShortType) {
+			if (type instanceof UnsignedShortType) {
 				tensor = Tensors.tensor(Converters.convert(image,
 						new RealIntConverter<>(), new IntType()), mapping);
 			}
@@ -91,9 +311,135 @@ public class TensorFlowConverter {
 		return tensor;
 	}
 
+	/**
+	 * Creates the tensor from the backing array of an {@link ArrayImg} in one
+	 * bulk copy. This is possible if the image has a type TensorFlow supports
+	 * and the mapping reverses the image dimensions, in which case the memory
+	 * layout of the image (first dimension varies fastest) matches the layout of
+	 * the tensor (last dimension varies fastest).
+	 *
+	 * @return the tensor or null if the image cannot be copied in bulk
+	 */
+	private static Tensor arrayImgToTensor(RandomAccessibleInterval image,
+		final int[] mapping)
+	{
+		if (image instanceof ImgPlus) image = ((ImgPlus) image).getImg();
+		if (!(image instanceof ArrayImg)) return null;
+		final int n = image.numDimensions();
+		if (mapping.length != n) return null;
+		for (int i = 0; i < n; i++) {
+			if (mapping[i] != n - 1 - i) return null;
+		}
+		final long[] shape = getShape(image, mapping);
+		final long size = Intervals.numElements(image);
+		if (size > Integer.MAX_VALUE) return null;
+		final Object access = ((ArrayImg) image).update(null);
+		if (!(access instanceof ArrayDataAccess)) return null;
+		final Object data = ((ArrayDataAccess) access).getCurrentStorageArray();
+		final Object type = ((ArrayImg) image).firstElement();
+		if (type instanceof FloatType && data instanceof float[]) {
+			return Tensor.create(shape, FloatBuffer.wrap((float[]) data, 0, (int) size));
+		}
+		if (type instanceof DoubleType && data instanceof double[]) {
+			return Tensor.create(shape, DoubleBuffer.wrap((double[]) data, 0, (int) size));
+		}
+		if (type instanceof IntType && data instanceof int[]) {
+			return Tensor.create(shape, IntBuffer.wrap((int[]) data, 0, (int) size));
+		}
+		if (type instanceof LongType && data instanceof long[]) {
+			return Tensor.create(shape, LongBuffer.wrap((long[]) data, 0, (int) size));
+		}
+		return null;
+	}
+
+	private static boolean isConvertedToFloat(Object type) {
+		if (type instanceof FloatType) return true;
+		// types with a tensor type of their own
+		return !(type instanceof DoubleType || type instanceof IntType ||
+			type instanceof LongType || type instanceof ByteType ||
+			type instanceof UnsignedByteType || type instanceof UnsignedShortType);
+	}
+
+	/**
+	 * Copies the image into a float tensor, staging the values in a direct
+	 * buffer of the pool.
+	 *
+	 * @return the tensor or null if the mapping is not a permutation of the
+	 *         image dimensions
+	 */
+	private static <T extends RealType<T>> Tensor copyToFloatTensor(
+		RandomAccessibleInterval<T> image, final int[] mapping,
+		TensorBufferPool pool)
+	{
+		final long[] shape = getShape(image, mapping);
+		if (shape == null) return null;
+		final ByteBuffer buffer = pool.acquire(DataType.FLOAT, shape);
+		try {
+			final FloatBuffer values = buffer.asFloatBuffer();
+			final Cursor<T> cursor = Views.flatIterable(toTensorOrder(image,
+				mapping)).cursor();
+			while (cursor.hasNext()) {
+				values.put(cursor.next().getRealFloat());
+			}
+			return Tensor.create(Float.class, shape, buffer);
+		}
+		finally {
+			pool.release(DataType.FLOAT, shape, buffer);
+		}
+	}
+
+	/**
+	 * @return the tensor shape, image dimension {@code i} becomes tensor
+	 *         dimension {@code mapping[i]}, or null if the mapping is not a
+	 *         permutation of the image dimensions
+	 */
+	private static long[] getShape(Dimensions image, int[] mapping) {
+		final int n = image.numDimensions();
+		if (mapping.length != n) return null;
+		final long[] shape = new long[n];
+		Arrays.fill(shape, -1);
+		for (int i = 0; i < n; i++) {
+			if (mapping[i] < 0 || mapping[i] >= n || shape[mapping[i]] != -1) return null;
+			shape[mapping[i]] = image.dimension(i);
+		}
+		return shape;
+	}
+
+	/**
+	 * @return a view of the image whose flat iteration order matches the memory
+	 *         layout of the tensor, its first dimension being the last tensor
+	 *         dimension
+	 */
+	private static <T> RandomAccessibleInterval<T> toTensorOrder(
+		RandomAccessibleInterval<T> image, final int[] mapping)
+	{
+		final int n = image.numDimensions();
+		// current[k] is the image dimension at view dimension k
+		final int[] current = new int[n];
+		for (int i = 0; i < n; i++) {
+			current[i] = i;
+		}
+		RandomAccessibleInterval<T> view = image;
+		for (int k = 0; k < n; k++) {
+			int target = 0;
+			while (mapping[target] != n - 1 - k) target++;
+			int p = k;
+			while (current[p] != target) p++;
+			if (p == k) continue;
+			view = Views.permute(view, k, p);
+			current[p] = current[k];
+			current[k] = target;
+		}
+		return view;
+	}
+
 	public static Tensor toTensor(Object data, int[] mapping) {
+		return toTensor(data, mapping, null);
+	}
+
+	public static Tensor toTensor(Object data, int[] mapping, TensorBufferPool pool) {
 		try {
-			return imageToTensor((RandomAccessibleInterval)data, mapping);
+			return imageToTensor((RandomAccessibleInterval)data, mapping, pool);
 		} catch (ClassCastException e) {
 			e.printStackTrace();
 			return null;
@@ -34,29 +34,46 @@ import net.imagej.DatasetService;
 import net.imagej.modelzoo.consumer.network.model.DefaultModel;
 import net.imagej.modelzoo.consumer.network.model.InputNode;
 import net.imagej.modelzoo.consumer.network.model.OutputNode;
+import net.imagej.modelzoo.consumer.network.model.TilePipeline;
+import net.imagej.modelzoo.consumer.tiling.TiledOutput;
+import net.imagej.modelzoo.consumer.util.IOHelper;
+import net.imagej.modelzoo.consumer.util.ModelZipExtractor;
 import net.imagej.tensorflow.CachedModelBundle;
 import net.imagej.tensorflow.TensorFlowService;
 import net.imagej.tensorflow.ui.TensorFlowLibraryManagementCommand;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import org.scijava.command.CommandService;
+import org.scijava.io.location.FileLocation;
 import org.scijava.io.location.Location;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
+import org.scijava.ui.UIService;
+import org.tensorflow.DataType;
+import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Tensor;
 import org.tensorflow.TensorFlowException;
+import org.tensorflow.framework.ConfigProto;
 import org.tensorflow.framework.MetaGraphDef;
 import org.tensorflow.framework.SignatureDef;
 import org.tensorflow.framework.TensorInfo;
 
 import javax.swing.*;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 
 public class TensorFlowModel<T extends RealType<T>> extends
@@ -74,7 +91,16 @@ public class TensorFlowModel<T extends RealType<T>> extends
 	@Parameter
 	private LogService logService;
 
-	private CachedModelBundle model;
+	@Parameter(required = false)
+	private UIService uiService;
+
+	// set if the model was loaded through the TensorFlowService
+	private CachedModelBundle cachedModel;
+	private SavedModelBundle model;
+	private File modelDir;
+	// one model instance per worker if running on multiple tiles in parallel
+	private final List<SavedModelBundle> workerModels = new ArrayList<>();
+	private final BlockingQueue<SavedModelBundle> idleWorkerModels = new LinkedBlockingQueue<>();
 	private SignatureDef sig;
 	private Map meta;
 	private boolean tensorFlowLoaded = false;
@@ -86,6 +112,10 @@ public class TensorFlowModel<T extends RealType<T>> extends
 	private static final String DEFAULT_SERVING_SIGNATURE_DEF_KEY =
 		"serving_default";
 
+	private final TensorFlowStages stages = new TensorFlowStages();
+	// staging buffers for tensor data, reused between tiles of the same shape
+	private final TensorBufferPool bufferPool = new TensorBufferPool();
+
 	public TensorFlowModel()
 	{
 	}
@@ -99,6 +129,7 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		} else {
 			tensorFlowLoaded = false;
 			logService.error("Could not load TensorFlow. Check previous errors and warnings for details.");
+			if (isHeadless()) return;
 			JOptionPane.showMessageDialog(null,
 					"<html>Could not load TensorFlow.<br/>Opening the TensorFlow Library Management tool.</html>",
 					"Loading TensorFlow failed",
@@ -107,6 +138,10 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		}
 	}
 
+	private boolean isHeadless() {
+		return GraphicsEnvironment.isHeadless() || uiService == null || uiService.isHeadless();
+	}
+
 	@Override
 	protected boolean loadModel(final Location source, final String modelName) {
 		if(!tensorFlowLoaded) return false;
@@ -117,12 +152,51 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		// in sync with the model exporter (export_saved_model()) in Python.
 		if(!loadSignature()) return false;
 		if (!loadModelSettings(source, modelName)) return false;
+		setWarmUpTime(-1);
+		if (isWarmUp()) warmUp(model);
 		return true;
 	}
 
+	/**
+	 * Runs the model once on zero filled input of the minimal size of each input
+	 * node, which initializes the session (graph optimization, kernel setup)
+	 * before the first tile is processed.
+	 */
+	private void warmUp(SavedModelBundle bundle) {
+		final long start = System.currentTimeMillis();
+		final List<Tensor> inputs = new ArrayList<>();
+		try {
+			for (InputNode node : getInputNodes()) {
+				inputs.add(createWarmUpTensor(node));
+			}
+			closeAll(TensorFlowRunner.executeGraph(bundle, inputs, getInputNames(), getOutputNames()));
+		} catch (IllegalArgumentException | TensorFlowException e) {
+			log.warn("Could not warm up model: " + e.getMessage());
+			return;
+		} finally {
+			closeAll(inputs);
+		}
+		final long time = System.currentTimeMillis() - start;
+		setWarmUpTime(Math.max(0, getWarmUpTime()) + time);
+		log.info("Model warm-up took " + time + " milliseconds");
+	}
+
+	private static Tensor createWarmUpTensor(InputNode node) {
+		long[] shape = new long[node.getAxesArray().length];
+		for (int i = 0; i < shape.length; i++) {
+			Object min = node.getAxis(i).getAttributes().get("min");
+			shape[i] = min == null ? 1 : Math.max(1, (int) min);
+		}
+		// model inputs are float32, see YamlReader
+		return Tensor.create(shape, FloatBuffer.allocate((int) Intervals.numElements(shape)));
+	}
+
 	private boolean loadModelSettings(Location source, String modelName) {
 		try {
-			loadModelSettingsFromYaml(tensorFlowService.loadFile(source, modelName, "model.yaml"));
+			File yamlFile = modelDir != null ? new File(modelDir, "model.yaml")
+					: tensorFlowService.loadFile(source, modelName, "model.yaml");
+			modelDir = yamlFile.getParentFile();
+			loadModelSettingsFromYaml(yamlFile);
 		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
@@ -132,7 +206,7 @@ public class TensorFlowModel<T extends RealType<T>> extends
 
 	private boolean loadSignature() {
 		try {
-			sig = MetaGraphDef.parseFrom(model.model().metaGraphDef()).getSignatureDefOrThrow(
+			sig = MetaGraphDef.parseFrom(model.metaGraphDef()).getSignatureDefOrThrow(
 				DEFAULT_SERVING_SIGNATURE_DEF_KEY);
 			System.out.println("Model inputs: " + sig.getInputsMap());
 			System.out.println("Model outputs: " + sig.getOutputsMap());
@@ -147,10 +221,20 @@ public class TensorFlowModel<T extends RealType<T>> extends
 
 	private boolean loadModelFile(Location source, String modelName) {
 		try {
-			if (model != null) {
-				model.close();
+			closeModel();
+			closeWorkerModels();
+			modelDir = null;
+			File zip = getLocalZipFile(source);
+			if (zip != null) {
+				// extract local zip files ourselves, skipping models which are extracted already.
+				// the TensorFlowService unpacks into the same directory and reuses it.
+				File dir = new ModelZipExtractor().extract(zip, new File(IOHelper.getTensorFlowModelDir(), modelName));
+				modelDir = findSavedModelDir(dir);
+				model = SavedModelBundle.load(modelDir.getAbsolutePath(), MODEL_TAG);
+			} else {
+				cachedModel = tensorFlowService.loadCachedModel(source, modelName, MODEL_TAG);
+				model = cachedModel.model();
 			}
-			model = tensorFlowService.loadCachedModel(source, modelName, MODEL_TAG);
 		}
 		catch (TensorFlowException | IOException e) {
 			e.printStackTrace();
@@ -159,6 +243,37 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		return true;
 	}
 
+	private static File getLocalZipFile(Location source) {
+		if (!(source instanceof FileLocation)) return null;
+		File file = ((FileLocation) source).getFile();
+		return file.isFile() && file.getName().toLowerCase().endsWith(".zip") ? file : null;
+	}
+
+	/**
+	 * @return the directory containing the saved model, either the given one or
+	 *         a subdirectory if the zip file contained a folder
+	 */
+	private static File findSavedModelDir(File dir) {
+		if (new File(dir, "saved_model.pb").exists()) return dir;
+		File[] children = dir.listFiles(File::isDirectory);
+		if (children != null) {
+			for (File child : children) {
+				if (new File(child, "saved_model.pb").exists()) return child;
+			}
+		}
+		return dir;
+	}
+
+	private void closeModel() {
+		if (cachedModel != null) {
+			cachedModel.close();
+		} else if (model != null) {
+			model.close();
+		}
+		cachedModel = null;
+		model = null;
+	}
+
 	private void loadModelSettingsFromYaml(File yamlFile) throws FileNotFoundException {
 		if(!yamlFile.exists()) return;
 		YamlReader reader = new YamlReader(log, sig, yamlFile);
@@ -173,28 +288,53 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		}
 	}
 
-	// TODO this is the tensorflow runner
 	@Override
-	public void execute() throws IllegalArgumentException, OutOfMemoryError {
-		List<Tensor> inputTensors = getInputTensors();
-		List<String> outputNames = getOutputNames();
-		List<Tensor<?>> outputTensors = TensorFlowRunner.executeGraph(
-				model.model(),
-				inputTensors,
-				getInputNames(),
-				outputNames);
+	protected TilePipeline.Stages<?, ?> getStages() {
+		return stages;
+	}
+
+	/**
+	 * Loads one model instance per worker, each limited to its share of the
+	 * available cores. They are kept for later tiled runs with the same number
+	 * of workers and closed with the model. Until then, the stages run the
+	 * cached model.
+	 */
+	@Override
+	protected void prepareWorkers(int numWorkers) {
+		if(workerModels.size() == numWorkers) return;
+		closeWorkerModels();
+		int threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+		byte[] config = ConfigProto.newBuilder()
+				.setIntraOpParallelismThreads(threadsPerWorker)
+				.setInterOpParallelismThreads(1)
+				.build().toByteArray();
+		log.info("Loading " + numWorkers + " model instances using " + threadsPerWorker + " thread(s) each");
+		for (int i = 0; i < numWorkers; i++) {
+			SavedModelBundle bundle = SavedModelBundle.loader(modelDir.getAbsolutePath())
+					.withTags(MODEL_TAG)
+					.withConfigProto(config)
+					.load();
+			workerModels.add(bundle);
+			idleWorkerModels.add(bundle);
+			if (isWarmUp()) warmUp(bundle);
+		}
+	}
 
-			setOutputTensors(outputTensors);
-			inputTensors.forEach(Tensor::close);
-			outputTensors.forEach(Tensor::close);
+	private void closeWorkerModels() {
+		idleWorkerModels.clear();
+		for (SavedModelBundle bundle : workerModels) {
+			bundle.close();
+		}
+		workerModels.clear();
 	}
 
-	private List<Tensor> getInputTensors() {
+	private List<Tensor> getInputTensors(List<Object> inputData) {
 		List<Tensor> res = new ArrayList<>();
-		for (InputNode node : getInputNodes()) {
-			final Tensor tensor = TensorFlowConverter.toTensor(node.getData(), node.getMappingIndices());
+		for (int i = 0; i < inputData.size(); i++) {
+			InputNode node = getInputNodes().get(i);
+			final Tensor tensor = TensorFlowConverter.toTensor(inputData.get(i), node.getMappingIndices(), bufferPool);
 			if(tensor == null) {
-				System.out.println("[ERROR] Cannot convert to tensor: " + node.getData());
+				System.out.println("[ERROR] Cannot convert to tensor: " + inputData.get(i));
 			}
 			res.add(tensor);
 		}
@@ -209,13 +349,84 @@ public class TensorFlowModel<T extends RealType<T>> extends
 		return getOutputNodes().stream().map(OutputNode::getName).collect(Collectors.toList());
 	}
 
-	private void setOutputTensors(List<Tensor<?>> tensors) {
+	private List<Object> getOutputData(List<Tensor<?>> tensors) {
+		List<Object> res = new ArrayList<>();
 		for (int i = 0; i < tensors.size(); i++) {
 			Tensor tensor = tensors.get(i);
 			OutputNode node = getOutputNodes().get(i);
-			System.out.println(Arrays.toString(node.getMappingIndices()));
-			RandomAccessibleInterval<T> output = TensorFlowConverter.fromTensor(tensor, node.getMappingIndices());
-			node.setData(output);
+			RandomAccessibleInterval<T> output = TensorFlowConverter.fromTensor(tensor, node.getMappingIndices(), bufferPool);
+			res.add(output);
+		}
+		return res;
+	}
+
+	private static void closeAll(List<? extends Tensor> tensors) {
+		for (Tensor tensor : tensors) {
+			if(tensor != null) tensor.close();
+		}
+	}
+
+	private class TensorFlowStages implements TilePipeline.Stages<List<Tensor>, List<Tensor<?>>> {
+
+		@Override
+		public List<Tensor> prepare(List<Object> inputData) {
+			return getInputTensors(inputData);
+		}
+
+		@Override
+		public List<Tensor<?>> execute(List<Tensor> inputs) {
+			if(workerModels.isEmpty()) {
+				return TensorFlowRunner.executeGraph(
+						model,
+						inputs,
+						getInputNames(),
+						getOutputNames());
+			}
+			SavedModelBundle workerModel;
+			try {
+				workerModel = idleWorkerModels.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while waiting for a model instance");
+			}
+			try {
+				return TensorFlowRunner.executeGraph(
+						workerModel,
+						inputs,
+						getInputNames(),
+						getOutputNames());
+			} finally {
+				idleWorkerModels.add(workerModel);
+			}
+		}
+
+		@Override
+		public List<Object> collect(List<Tensor<?>> outputs) {
+			if(outputs.size() == 1 && outputs.get(0).dataType().equals(DataType.FLOAT)) {
+				// write tiles straight into the output image instead of converting each of them into an image first
+				Tensor tensor = outputs.get(0);
+				int[] mapping = getOutputNodes().get(0).getMappingIndices();
+				long[] dims = TensorFlowConverter.getImageDims(tensor, mapping);
+				List<TiledOutput.Region<T>> regions = dims == null ? null : getOutputRegions(dims, (T) new FloatType());
+				if(regions != null) {
+					TensorFlowConverter.fromTensor(tensor, mapping,
+							regions.stream().map(TiledOutput.Region::getTarget).collect(Collectors.toList()),
+							regions.stream().map(TiledOutput.Region::getOffset).collect(Collectors.toList()),
+							bufferPool);
+					return Collections.emptyList();
+				}
+			}
+			return getOutputData(outputs);
+		}
+
+		@Override
+		public void releaseInputs(List<Tensor> inputs) {
+			closeAll(inputs);
+		}
+
+		@Override
+		public void releaseOutputs(List<Tensor<?>> outputs) {
+			closeAll(outputs);
 		}
 	}
 
@@ -240,8 +451,14 @@ public class TensorFlowModel<T extends RealType<T>> extends
 	@Override
 	public void clear() {
 		super.clear();
+		closeWorkerModels();
+		bufferPool.clear();
 		sig = null;
+		// cached models are kept open for the TensorFlowService
+		if (cachedModel == null && model != null) model.close();
+		cachedModel = null;
 		model = null;
+		modelDir = null;
 	}
 
 	@Override
@@ -44,6 +44,7 @@ public class AdvancedTiledView<T extends RealType<T>> extends TiledView<T> {
 	private final Map<AxisType, Long> originalDims;
 	private final AxisType[] originalAxes;
 	private final List<RandomAccessibleInterval<T>> processedTiles;
+	private TiledOutput<T> tiledOutput;
 	// protected int blockMultiple;
 	// protected long blockWidth;
 
@@ -72,6 +73,19 @@ public class AdvancedTiledView<T extends RealType<T>> extends TiledView<T> {
 		return processedTiles;
 	}
 
+	/**
+	 * @return the output the processed tiles can be written into directly
+	 *         instead of collecting them in {@link #getProcessedTiles()}, null if
+	 *         the tiles have to be collected
+	 */
+	public TiledOutput<T> getTiledOutput() {
+		return tiledOutput;
+	}
+
+	public void setTiledOutput(TiledOutput<T> tiledOutput) {
+		this.tiledOutput = tiledOutput;
+	}
+
 	public AxisType[] getOriginalAxes() {
 		return originalAxes;
 	}
@@ -30,6 +30,7 @@
 package net.imagej.modelzoo.consumer.tiling;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -43,14 +44,26 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.list.ListImg;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
 public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 
+	public enum AssemblyMode {
+			VIEWS, // lazily combine the tiles with a GridView
+			DIRECT // copy the tiles into a newly allocated image
+	}
+
 	private int tilesNum;
 	private int batchSize;
 	private final int blockMultiple;
 	private final int overlap;
+	private final TilePlanner planner;
+	private long[] blockMultiples;
+	private long[] overlaps;
+	private final Map<AxisType, Long> outputScales = new HashMap<>();
+	private final Map<AxisType, Long> outputOffsets = new HashMap<>();
+	private AssemblyMode assemblyMode = AssemblyMode.DIRECT;
 	private Task status;
 	private TilingAction[] tilingActions;
 
@@ -62,7 +75,42 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 		this.batchSize = batchSize;
 		this.blockMultiple = blockMultiple;
 		this.overlap = overlap;
+		this.planner = null;
+
+	}
+
+	/**
+	 * Creates a tiling whose number of tiles per dimension is chosen by the
+	 * planner, using its step and halo per input dimension.
+	 */
+	public DefaultTiling(final TilePlanner planner, final int batchSize) {
+
+		this.tilesNum = 1;
+		this.batchSize = batchSize;
+		this.blockMultiple = 1;
+		this.overlap = 0;
+		this.planner = planner;
+
+	}
+
+	/**
+	 * Declares how the size of an output axis relates to the size of the input
+	 * axis of the same type: {@code output = input * scale + 2 * offset}. The
+	 * padding of the tiles is scaled accordingly when removing it from the
+	 * output tiles.
+	 */
+	public void setOutputScaleAndOffset(AxisType axis, long scale, long offset) {
+		outputScales.put(axis, scale);
+		outputOffsets.put(axis, offset);
+	}
 
+	/**
+	 * Sets how the processed tiles are combined into the output image. Direct
+	 * assembly results in a flat image which is fast to access, assembling with
+	 * views does not need to allocate memory for the whole output.
+	 */
+	public void setAssemblyMode(AssemblyMode assemblyMode) {
+		this.assemblyMode = assemblyMode;
 	}
 
 	@Override
@@ -74,9 +122,17 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 
 		if (input != null) {
 
+			initBlockMultiplesAndOverlaps(input.numDimensions());
 			long[] tiling = new long[input.numDimensions()];
 			Arrays.fill(tiling, 1);
-			computeTiling(input, tiling, tilingActions);
+			if (planner != null) {
+				tiling = planner.plan(getPlannedDimensions(input), tilingActions);
+				parent.log("Planned tiling for a memory budget of " + planner
+					.getMemoryBudget() + " bytes: " + Arrays.toString(tiling));
+			}
+			else {
+				computeTiling(input, tiling, tilingActions);
+			}
 			tilesNum = (int) arrayProduct(tiling);
 			long[] padding = getPadding(tiling);
 			computeBatching(input, tiling, tilingActions);
@@ -96,6 +152,10 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 				tiledView.getOriginalDims().put(axes[i], input.dimension(
 					i));
 			}
+			if (assemblyMode == AssemblyMode.DIRECT) {
+				tiledView.setTiledOutput(new TiledOutput<>(tiledView, outputScales,
+					outputOffsets));
+			}
 
 			LogHelper.logDim(parent, "Final image tiling", tiledView);
 			parent.debug("Final tile padding: " + Arrays.toString(padding));
@@ -113,6 +173,25 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 
 	}
 
+	private void initBlockMultiplesAndOverlaps(int numDimensions) {
+		blockMultiples = new long[numDimensions];
+		overlaps = new long[numDimensions];
+		for (int i = 0; i < numDimensions; i++) {
+			blockMultiples[i] = planner != null ? planner.getStep(i) : blockMultiple;
+			overlaps[i] = planner != null ? planner.getHalo(i) : overlap;
+		}
+	}
+
+	private long[] getPlannedDimensions(RandomAccessibleInterval<T> input) {
+		long[] dims = Intervals.dimensionsAsLongArray(input);
+		for (int i = 0; i < dims.length; i++) {
+			if (tilingActions[i] == TilingAction.TILE_WITHOUT_PADDING) {
+				dims[i] = Math.min(dims[i], batchSize);
+			}
+		}
+		return dims;
+	}
+
 	private void computeBatching(RandomAccessibleInterval<T> input, long[] tiling,
 		TilingAction[] tilingActions)
 	{
@@ -161,8 +240,8 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 			int maxDim = -1;
 			for (int i = 0; i < singleTile.length; i++) {
 				if (tilingActions[i] == TilingAction.TILE_WITH_PADDING) {
-					singleTile[i] = getTileSize(input, i, tiling, blockMultiple);
-					if (singleTile[i] > blockMultiple && (maxDim < 0 ||
+					singleTile[i] = getTileSize(input, i, tiling, blockMultiples[i]);
+					if (singleTile[i] > blockMultiples[i] && (maxDim < 0 ||
 						singleTile[i] > singleTile[maxDim]))
 					{
 						maxDim = i;
@@ -179,14 +258,23 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 		}
 	}
 
-	private long getTileSize(RandomAccessibleInterval<T> dataset, int dimension, long[] tiling, int tileMultiple) {
-		return (long) (Math.ceil(dataset.dimension(dimension) / tiling[dimension] / (double) tileMultiple) * tileMultiple);
+	private long getTileSize(RandomAccessibleInterval<T> dataset, int dimension, long[] tiling, long tileMultiple) {
+		return getTileSize(dataset.dimension(dimension), tiling[dimension], tileMultiple);
+	}
+
+	/**
+	 * @return the size of a tile when splitting a dimension of the given size
+	 *         into the given number of tiles, rounded up to a multiple of
+	 *         {@code tileMultiple}
+	 */
+	public static long getTileSize(long size, long tiles, long tileMultiple) {
+		return (long) (Math.ceil(size / (double) tiles / tileMultiple) * tileMultiple);
 	}
 
 	private long[] getPadding(long[] tiling) {
 		long[] padding = new long[tiling.length];
 		for (int i = 0; i < padding.length; i++) {
-			if (tiling[i] > 1) padding[i] = overlap;
+			if (tiling[i] > 1) padding[i] = overlaps[i];
 		}
 		return padding;
 	}
@@ -196,7 +284,7 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 	{
 		for (int i = 0; i < dataset.numDimensions(); i++) {
 			if (tilingActions[i] == TilingAction.TILE_WITH_PADDING) {
-				dataset = expandDimToSize(dataset, i, getTileSize(dataset, i, tiling, blockMultiple) * tiling[i]);
+				dataset = expandDimToSize(dataset, i, getTileSize(dataset, i, tiling, blockMultiples[i]) * tiling[i]);
 			}
 		}
 		return dataset;
@@ -237,6 +325,15 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 
 		parent.log("POSTPROCESSING");
 
+		final TiledOutput<T> tiledOutput = results.getTiledOutput();
+		if (tiledOutput != null && tiledOutput.getImage() != null) {
+			// the tiles were written into the output while running the model
+			parent.log("Output axes: " + Arrays.toString(axisTypes));
+			LogHelper.debugDim(parent, "fittedResult dimensions", tiledOutput
+				.getImage());
+			return tiledOutput.getImage();
+		}
+
 		List<RandomAccessibleInterval<T>> resultData = results.getProcessedTiles();
 
 		if (resultData != null && resultData.size() > 0) {
@@ -248,35 +345,49 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 			LogHelper.debugDim(parent, "result 0 before padding removement",
 				firstResult);
 
-			long[] grid = new long[axisTypes.length];
-			Arrays.fill(grid, 1);
-			for (int i = 0; i < grid.length; i++) {
-				for (int j = 0; j < results.getOriginalAxes().length; j++) {
-					if (results.getOriginalAxes()[j].equals(axisTypes[i])) {
-						grid[i] = results.numDimensions() > j ? results.dimension(j) : 1;
-						break;
-					}
+			RandomAccessibleInterval<T> fittedResult;
+			if (tiledOutput != null && TiledOutput.isSupported(Util
+				.getTypeFromInterval(firstResult)))
+			{
+				parent.log("Writing tiles into output image..");
+				tiledOutput.setAxes(axisTypes);
+				for (int i = 0; i < resultData.size(); i++) {
+					tiledOutput.write(i, resultData.get(i));
 				}
+				resultData.clear();
+				fittedResult = tiledOutput.getImage();
 			}
-			for (int i = 0; i < resultData.size(); i++) {
-				resultData.set(i, removePadding(resultData.get(i), results.getOverlapComplete(),
-					results.getOriginalAxes(), axisTypes));
-			}
+			else {
+				long[] grid = new long[axisTypes.length];
+				Arrays.fill(grid, 1);
+				for (int i = 0; i < grid.length; i++) {
+					for (int j = 0; j < results.getOriginalAxes().length; j++) {
+						if (results.getOriginalAxes()[j].equals(axisTypes[i])) {
+							grid[i] = results.numDimensions() > j ? results.dimension(j) : 1;
+							break;
+						}
+					}
+				}
+				for (int i = 0; i < resultData.size(); i++) {
+					resultData.set(i, removePadding(resultData.get(i), results.getOverlapComplete(),
+						results.getOriginalAxes(), axisTypes));
+				}
 
-			// TODO log padding / test padding
-			LogHelper.debugDim(parent, "result 0 after padding removement",
-				firstResult);
+				// TODO log padding / test padding
+				LogHelper.debugDim(parent, "result 0 after padding removement",
+					firstResult);
 
-			parent.log("Merging tiles..");
+				parent.log("Merging tiles..");
 
-			final RandomAccessibleInterval<T> mergedResult = arrangeAndCombineTiles(
-				resultData, grid);
+				final RandomAccessibleInterval<T> mergedResult = arrangeAndCombineTiles(
+					resultData, grid);
 
-			LogHelper.debugDim(parent, "merge", mergedResult);
-			parent.log("Crop to original size..");
+				LogHelper.debugDim(parent, "merge", mergedResult);
+				parent.log("Crop to original size..");
 
-			RandomAccessibleInterval<T> fittedResult = undoExpansion(mergedResult,
-				results.getOriginalDims(), axisTypes);
+				fittedResult = undoExpansion(mergedResult, results.getOriginalDims(),
+					axisTypes);
+			}
 
 			parent.log("Output axes: " + Arrays.toString(axisTypes));
 			LogHelper.debugDim(parent, "fittedResult dimensions", fittedResult);
@@ -302,7 +413,8 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 		for (int i = 0; i < oldAxes.length; i++) {
 			for (int j = 0; j < newAxes.length; j++) {
 				if (oldAxes[i] == newAxes[j]) {
-					negPadding[j] = -padding[i];
+					negPadding[j] = -(padding[i] * getOutputScale(newAxes[j]) +
+						getOutputOffset(newAxes[j]));
 				}
 			}
 		}
@@ -329,7 +441,7 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 			// TODO maybe implement this in a more dynamic way, use tilingActions
 			if (axis != Axes.CHANNEL) {
 				if(originalDims.get(axis) == null) continue;
-				long originalSize = originalDims.get(axis);
+				long originalSize = originalDims.get(axis) * getOutputScale(axis);
 				fittedResult = expandDimToSize(fittedResult == null ? result
 					: fittedResult, i, originalSize);
 			}
@@ -337,6 +449,14 @@ public class DefaultTiling<T extends RealType<T>> implements Tiling<T> {
 		return fittedResult;
 	}
 
+	private long getOutputScale(AxisType axis) {
+		return outputScales.getOrDefault(axis, 1L);
+	}
+
+	private long getOutputOffset(AxisType axis) {
+		return outputOffsets.getOrDefault(axis, 0L);
+	}
+
 	private RandomAccessibleInterval<T> expandDimToSize(
 			final RandomAccessibleInterval<T> im, final int d, final long size)
 	{
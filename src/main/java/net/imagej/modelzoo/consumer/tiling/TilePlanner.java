@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plans the number of tiles per dimension before running a model. Out of all
+ * tilings whose padded tile fits into the memory budget, the planner picks the
+ * one computing the fewest pixels in total (tile size including halo times
+ * number of tiles). If two tilings compute the same number of pixels, the one
+ * with less tiles wins.
+ */
+public class TilePlanner {
+
+	/**
+	 * Estimated memory needed by the model per pixel of a tile, including
+	 * tensors and intermediate network layers.
+	 */
+	public static final long DEFAULT_BYTES_PER_PIXEL = 1024;
+
+	private final long memoryBudget;
+	private final long bytesPerPixel;
+	private final long[] min;
+	private final long[] step;
+	private final long[] halo;
+
+	private long[] best;
+	private long bestPixels;
+	private long bestTiles;
+
+	/**
+	 * @param memoryBudget maximum number of bytes a single tile may use
+	 * @param bytesPerPixel memory needed per pixel of a tile
+	 * @param min minimal tile size per input dimension
+	 * @param step tile sizes have to be a multiple of the step of each input
+	 *          dimension, 0 if the dimension size is fixed
+	 * @param halo number of pixels added on both sides of a tile per input
+	 *          dimension if it is tiled
+	 */
+	public TilePlanner(final long memoryBudget, final long bytesPerPixel,
+		final long[] min, final long[] step, final long[] halo)
+	{
+		this.memoryBudget = memoryBudget;
+		this.bytesPerPixel = bytesPerPixel;
+		this.min = min;
+		this.step = step;
+		this.halo = halo;
+	}
+
+	/**
+	 * @return the memory budget derived from the maximum heap size
+	 */
+	public static long getDefaultMemoryBudget() {
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public long getStep(final int d) {
+		return Math.max(1, step[d]);
+	}
+
+	public long getHalo(final int d) {
+		return halo[d];
+	}
+
+	/**
+	 * @param dims size of each input dimension, for dimensions which are tiled
+	 *          without padding the size of a single batch
+	 * @param actions the tiling action of each input dimension
+	 * @return the number of tiles per dimension
+	 */
+	public long[] plan(final long[] dims, final Tiling.TilingAction[] actions) {
+		final List<long[]> candidates = new ArrayList<>(dims.length);
+		for (int d = 0; d < dims.length; d++) {
+			candidates.add(getCandidateTileNumbers(dims, actions, d));
+		}
+		best = null;
+		bestPixels = Long.MAX_VALUE;
+		bestTiles = Long.MAX_VALUE;
+		final long[] tiling = new long[dims.length];
+		Arrays.fill(tiling, 1);
+		search(dims, actions, candidates, tiling, 0, 1, 1, 1);
+		if (best == null) {
+			// nothing fits into the budget, use the smallest possible tiles
+			for (int d = 0; d < dims.length; d++) {
+				final long[] dimCandidates = candidates.get(d);
+				tiling[d] = dimCandidates[dimCandidates.length - 1];
+			}
+			best = tiling.clone();
+		}
+		return best;
+	}
+
+	/**
+	 * @return the padded tile size of dimension {@code d} when split into
+	 *         {@code tiles} tiles, matching {@link DefaultTiling}
+	 */
+	public long getPaddedTileSize(final long[] dims,
+		final Tiling.TilingAction[] actions, final int d, final long tiles)
+	{
+		if (actions[d] != Tiling.TilingAction.TILE_WITH_PADDING) return dims[d];
+		final long tileSize = DefaultTiling.getTileSize(dims[d], tiles, getStep(d));
+		if (tiles == 1) return tileSize;
+		return tileSize + 2 * halo[d];
+	}
+
+	/**
+	 * @return all tile numbers of dimension {@code d} resulting in different
+	 *         tile sizes, in ascending order
+	 */
+	private long[] getCandidateTileNumbers(final long[] dims,
+		final Tiling.TilingAction[] actions, final int d)
+	{
+		if (actions[d] != Tiling.TilingAction.TILE_WITH_PADDING) {
+			return new long[] { 1 };
+		}
+		final long maxTiles = Math.max(1, (dims[d] + getStep(d) - 1) / getStep(d));
+		final List<Long> res = new ArrayList<>();
+		long lastTileSize = -1;
+		for (long tiles = 1; tiles <= maxTiles; tiles++) {
+			final long tileSize = DefaultTiling.getTileSize(dims[d], tiles, getStep(
+				d));
+			if (tileSize == lastTileSize) continue;
+			if (tiles > 1 && tileSize + 2 * halo[d] < min[d]) break;
+			res.add(tiles);
+			lastTileSize = tileSize;
+		}
+		return res.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	private void search(final long[] dims, final Tiling.TilingAction[] actions,
+		final List<long[]> candidates, final long[] tiling, final int d,
+		final long tilePixels, final long totalPixels, final long totalTiles)
+	{
+		if (d == dims.length) {
+			if (tilePixels * bytesPerPixel > memoryBudget) return;
+			if (totalPixels < bestPixels || (totalPixels == bestPixels &&
+				totalTiles < bestTiles))
+			{
+				best = tiling.clone();
+				bestPixels = totalPixels;
+				bestTiles = totalTiles;
+			}
+			return;
+		}
+		for (final long tiles : candidates.get(d)) {
+			final long padded = getPaddedTileSize(dims, actions, d, tiles);
+			final long nextTilePixels = tilePixels * padded;
+			final long nextTotalPixels = totalPixels * padded * tiles;
+			// the remaining dimensions can only add pixels
+			if (nextTilePixels * bytesPerPixel > memoryBudget) continue;
+			if (nextTotalPixels > bestPixels) continue;
+			tiling[d] = tiles;
+			search(dims, actions, candidates, tiling, d + 1, nextTilePixels,
+				nextTotalPixels, totalTiles * tiles);
+		}
+		tiling[d] = 1;
+	}
+}
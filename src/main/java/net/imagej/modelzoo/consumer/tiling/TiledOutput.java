@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.tiling;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Map;
+
+/**
+ * The output image of a tiled run, assembled tile by tile. The image is
+ * allocated when the first tile arrives, each tile is written into its region
+ * without the padding and the tile can be dropped afterwards. Tiles are
+ * identified by their index in flat iteration order of the tiled input.
+ */
+public class TiledOutput<T extends RealType<T>> {
+
+	private final AdvancedTiledView<T> tiles;
+	private final Map<AxisType, Long> scales;
+	private final Map<AxisType, Long> offsets;
+	private AxisType[] axes;
+	private long[] grid;
+	private long[] padding;
+	private long[] tileSize;
+	private long[] dims;
+	private RandomAccessibleInterval<T> image;
+
+	TiledOutput(final AdvancedTiledView<T> tiles,
+		final Map<AxisType, Long> scales, final Map<AxisType, Long> offsets)
+	{
+		this.tiles = tiles;
+		this.scales = scales;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * @return whether tiles of the given type can be written into an output
+	 *         image
+	 */
+	public static boolean isSupported(final Object type) {
+		return type instanceof NativeType;
+	}
+
+	/**
+	 * Sets the axes of the output tiles, which determine where each tile is
+	 * placed and how much padding is removed from it. Discards output written
+	 * before.
+	 */
+	public void setAxes(final AxisType[] outputAxes) {
+		axes = outputAxes;
+		grid = new long[outputAxes.length];
+		padding = new long[outputAxes.length];
+		final AxisType[] inputAxes = tiles.getOriginalAxes();
+		final long[] overlap = tiles.getOverlapComplete();
+		for (int i = 0; i < outputAxes.length; i++) {
+			grid[i] = 1;
+			for (int j = 0; j < inputAxes.length; j++) {
+				if (inputAxes[j].equals(outputAxes[i])) {
+					grid[i] = tiles.numDimensions() > j ? tiles.dimension(j) : 1;
+					padding[i] = overlap[j] * getScale(outputAxes[i]) + getOffset(
+						outputAxes[i]);
+					break;
+				}
+			}
+		}
+		tileSize = null;
+		dims = null;
+		image = null;
+	}
+
+	/**
+	 * @return the padding in output pixels on both sides of each output tile
+	 *         dimension
+	 */
+	public long[] getPadding() {
+		return padding;
+	}
+
+	/**
+	 * @return the assembled output image, null if no tile was written yet
+	 */
+	public RandomAccessibleInterval<T> getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the region of the output image the tile is written to, allocating
+	 * the output image for the first tile. The tile output without the padding
+	 * (see {@link #getPadding()}) is cropped to the size of this region.
+	 *
+	 * @param index index of the tile in the tiled input
+	 * @param paddedTileDims size of the model output of a single tile, including
+	 *          the padding
+	 * @param type pixel type of the output image
+	 * @return the region or null if the tile only covers the expanded border of
+	 *         the input
+	 */
+	public RandomAccessibleInterval<T> getTarget(final long index,
+		final long[] paddedTileDims, final T type)
+	{
+		if (image == null) allocate(paddedTileDims, type);
+		final long[] inputPosition = new long[tiles.numDimensions()];
+		IntervalIndexer.indexToPosition(index, Intervals.dimensionsAsLongArray(
+			tiles), inputPosition);
+		final long[] min = new long[dims.length];
+		final long[] max = new long[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			min[d] = getGridPosition(inputPosition, d) * tileSize[d];
+			max[d] = Math.min(min[d] + tileSize[d], dims[d]) - 1;
+			if (max[d] < min[d]) return null;
+		}
+		return Views.interval(image, min, max);
+	}
+
+	/**
+	 * Copies the tile without its padding into the output image.
+	 *
+	 * @param index index of the tile in the tiled input
+	 * @param paddedTile the model output of a single tile, including the padding
+	 */
+	public void write(final long index,
+		final RandomAccessibleInterval<T> paddedTile)
+	{
+		final RandomAccessibleInterval<T> target = getTarget(index, Intervals
+			.dimensionsAsLongArray(paddedTile), Views.iterable(paddedTile)
+				.firstElement());
+		if (target == null) return;
+		final long[] min = Intervals.minAsLongArray(paddedTile);
+		final long[] max = new long[min.length];
+		for (int d = 0; d < min.length; d++) {
+			min[d] += padding[d];
+			max[d] = min[d] + target.dimension(d) - 1;
+		}
+		final Cursor<T> in = Views.flatIterable(Views.interval(paddedTile,
+			new FinalInterval(min, max))).cursor();
+		final Cursor<T> out = Views.flatIterable(target).cursor();
+		while (out.hasNext()) {
+			out.next().set(in.next());
+		}
+	}
+
+	/**
+	 * A region of the output image together with the position of the region in
+	 * the model output it is copied from.
+	 */
+	public static class Region<T> {
+
+		private final RandomAccessibleInterval<T> target;
+		private final long[] offset;
+
+		public Region(final RandomAccessibleInterval<T> target,
+			final long[] offset)
+		{
+			this.target = target;
+			this.offset = offset;
+		}
+
+		public RandomAccessibleInterval<T> getTarget() {
+			return target;
+		}
+
+		public long[] getOffset() {
+			return offset;
+		}
+	}
+
+	private long getGridPosition(final long[] inputPosition, final int d) {
+		final AxisType[] inputAxes = tiles.getOriginalAxes();
+		for (int j = 0; j < inputPosition.length; j++) {
+			if (inputAxes[j].equals(axes[d])) return inputPosition[j];
+		}
+		return 0;
+	}
+
+	private void allocate(final long[] paddedTileDims, final T type) {
+		final Map<AxisType, Long> originalDims = tiles.getOriginalDims();
+		tileSize = new long[axes.length];
+		dims = new long[axes.length];
+		for (int d = 0; d < dims.length; d++) {
+			tileSize[d] = paddedTileDims[d] - 2 * padding[d];
+			dims[d] = grid[d] * tileSize[d];
+			final AxisType axis = axes[d];
+			if (axis != Axes.CHANNEL && originalDims.get(axis) != null) {
+				dims[d] = Math.min(dims[d], originalDims.get(axis) * getScale(axis));
+			}
+		}
+		if (Intervals.numElements(dims) <= Integer.MAX_VALUE) {
+			image = new ArrayImgFactory((NativeType) type).create(dims);
+		}
+		else {
+			image = new CellImgFactory((NativeType) type).create(dims);
+		}
+	}
+
+	private long getScale(final AxisType axis) {
+		return scales.getOrDefault(axis, 1L);
+	}
+
+	private long getOffset(final AxisType axis) {
+		return offsets.getOrDefault(axis, 0L);
+	}
+}
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.util;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Remembers the MD5 hashes of files, so a model file is only read again if
+ * its size or modification time changed. The hashes are stored in a
+ * properties file, by default in the model cache directory.
+ */
+public class FileHashCache {
+
+	public static final String FILE_NAME = "model-hashes.properties";
+
+	// files are read in chunks of this size while hashing
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static FileHashCache instance;
+
+	private final File storage;
+	private final Properties hashes = new Properties();
+	private boolean loaded = false;
+
+	public FileHashCache(File storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * @return the cache stored next to the unpacked models in
+	 *         {@link IOHelper#getModelCacheDir()}
+	 */
+	public static synchronized FileHashCache getInstance() {
+		if (instance == null) {
+			instance = new FileHashCache(new File(IOHelper.getModelCacheDir(), FILE_NAME));
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the MD5 hash of the file as hex string, computed only if the file
+	 *         is unknown or its size or modification time changed
+	 */
+	public String getMd5(File file) throws IOException {
+		final String key = file.getAbsolutePath();
+		final String metadata = file.length() + ";" + file.lastModified();
+		synchronized (this) {
+			load();
+			final String entry = hashes.getProperty(key);
+			if (entry != null && entry.startsWith(metadata + ";")) {
+				return entry.substring(metadata.length() + 1);
+			}
+		}
+		// hashing large files takes a while, do not block other files meanwhile
+		final String md5 = computeMd5(file);
+		// the file might have changed while reading it
+		if (metadata.equals(file.length() + ";" + file.lastModified())) {
+			synchronized (this) {
+				hashes.setProperty(key, metadata + ";" + md5);
+				save();
+			}
+		}
+		return md5;
+	}
+
+	/**
+	 * Computes the MD5 hash of a file, reading it sequentially.
+	 */
+	public static String computeMd5(File file) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+			while (in.read(buffer) != -1) {
+				// the digest is updated while reading
+			}
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		if (!storage.exists()) return;
+		try (InputStream in = new FileInputStream(storage)) {
+			hashes.load(in);
+		}
+		catch (IOException | IllegalArgumentException e) {
+			// start with an empty cache, the hashes are computed again
+			hashes.clear();
+		}
+	}
+
+	private void save() {
+		final File dir = storage.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs()) return;
+		try {
+			// write to a temporary file first to not leave a broken cache behind
+			final File tmp = File.createTempFile(FILE_NAME, ".tmp", dir);
+			try (OutputStream out = new FileOutputStream(tmp)) {
+				hashes.store(out, "MD5 hashes of model files: size;modification time;hash");
+			}
+			Files.move(tmp.toPath(), storage.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			// the cache is an optimization, hashes are computed again next time
+		}
+	}
+}
@@ -35,7 +35,6 @@ import org.scijava.io.location.FileLocation;
 import org.scijava.io.location.Location;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -90,12 +89,32 @@ public class IOHelper {
 	}
 
 	public static String getFileCacheName(Class<? extends ModelZooPredictionCommand> parentClass, File file) throws IOException {
-		try (FileInputStream fis = new FileInputStream(file)) {
-			String md5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(fis);
-			return parentClass.getSimpleName() + "_" + md5;
-		} catch (IOException e) {
-			throw e;
-		}
+		String md5 = FileHashCache.getInstance().getMd5(file);
+		return parentClass.getSimpleName() + "_" + md5;
+	}
+
+	/**
+	 * @return the directory to store data belonging to models (e.g. their
+	 *         hashes), set with the system property
+	 *         {@code imagej.modelzoo.cache}. By default this is
+	 *         {@link #getTensorFlowModelDir()}.
+	 */
+	public static File getModelCacheDir() {
+		String dir = System.getProperty("imagej.modelzoo.cache");
+		if(dir != null) return new File(dir);
+		return getTensorFlowModelDir();
+	}
+
+	/**
+	 * @return the directory the TensorFlowService unpacks models into, one
+	 *         subdirectory per model name: {@code models} in the ImageJ
+	 *         directory, or in {@code ~/.imagej} if ImageJ is not installed
+	 *         (e.g. in headless runs and tests)
+	 */
+	public static File getTensorFlowModelDir() {
+		String imagejDir = System.getProperty("imagej.dir");
+		File base = imagejDir != null ? new File(imagejDir) : new File(System.getProperty("user.home"), ".imagej");
+		return new File(base, "models");
 	}
 
 	public static String getUrlCacheName(Class<? extends ModelZooPredictionCommand> parentClass, String modelUrl) throws IOException {
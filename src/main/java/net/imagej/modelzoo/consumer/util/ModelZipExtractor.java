@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.consumer.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unpacks model zip files into a cache directory. The entries are extracted
+ * in parallel. After a successful extraction, a manifest listing the zip file
+ * and the size of each extracted file is written into the directory. As long
+ * as the manifest matches the zip file and the extracted files, extracting
+ * the same zip file again is skipped.
+ */
+public class ModelZipExtractor {
+
+	public static final String MANIFEST = ".modelzoo-manifest";
+
+	private int numThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Extracts the zip file into the directory unless it holds a valid
+	 * extraction of the same zip file already.
+	 *
+	 * @return the directory
+	 */
+	public File extract(File zip, File dir) throws IOException {
+		if (isExtracted(zip, dir)) return dir;
+		final File manifest = new File(dir, MANIFEST);
+		Files.deleteIfExists(manifest.toPath());
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+		final Path root = dir.toPath().toAbsolutePath().normalize();
+		final List<String> lines = new ArrayList<>();
+		lines.add(getZipDescription(zip));
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			final List<ZipEntry> files = new ArrayList<>();
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				final Path target = resolve(root, entry);
+				if (entry.isDirectory()) {
+					Files.createDirectories(target);
+					continue;
+				}
+				Files.createDirectories(target.getParent());
+				files.add(entry);
+			}
+			extractAll(zipFile, files, root);
+			for (ZipEntry entry : files) {
+				lines.add(entry.getName() + "\t" + Files.size(resolve(root, entry)));
+			}
+		}
+		// written last, so an interrupted extraction is repeated
+		final File tmp = new File(dir, MANIFEST + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.newLine();
+			}
+		}
+		Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return dir;
+	}
+
+	/**
+	 * @return whether the directory contains a manifest of the zip file in its
+	 *         current version and all files listed in it with their size
+	 */
+	public static boolean isExtracted(File zip, File dir) {
+		final File manifest = new File(dir, MANIFEST);
+		if (!manifest.exists()) return false;
+		try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+			if (!getZipDescription(zip).equals(reader.readLine())) return false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int separator = line.lastIndexOf('\t');
+				if (separator < 0) return false;
+				final File file = new File(dir, line.substring(0, separator));
+				if (!file.isFile() || file.length() != Long.parseLong(line.substring(separator + 1))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		catch (IOException | NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private void extractAll(ZipFile zipFile, List<ZipEntry> files, Path root) throws IOException {
+		if (files.isEmpty()) return;
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, files.size()));
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			// start with the large entries (e.g. the weights), they take longest
+			files.sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+			for (ZipEntry entry : files) {
+				futures.add(pool.submit(() -> {
+					try (InputStream in = zipFile.getInputStream(entry)) {
+						Files.copy(in, resolve(root, entry), StandardCopyOption.REPLACE_EXISTING);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extracting " + zipFile.getName() + " was interrupted", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Path resolve(Path root, ZipEntry entry) throws IOException {
+		final Path target = root.resolve(entry.getName()).normalize();
+		if (!target.startsWith(root)) {
+			throw new IOException("Zip entry " + entry.getName() + " is outside of the target directory");
+		}
+		return target;
+	}
+
+	private static String getZipDescription(File zip) {
+		return zip.getAbsolutePath() + "\t" + zip.length() + "\t" + zip.lastModified();
+	}
+}
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.transformation.normalize;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits intervals into chunks which can be processed in parallel.
+ */
+class Chunks {
+
+	private Chunks() {}
+
+	/**
+	 * Splits the interval into up to {@code numChunks} slices along its last
+	 * dimension with a size larger than one. Each slice covers whole lines of
+	 * the interval, so it can be iterated in flat order efficiently.
+	 */
+	static List<Interval> slices(Interval interval, long numChunks) {
+		final List<Interval> chunks = new ArrayList<>();
+		int dim = interval.numDimensions() - 1;
+		while (dim > 0 && interval.dimension(dim) == 1) dim--;
+		final long size = interval.dimension(dim);
+		numChunks = Math.max(1, Math.min(size, numChunks));
+		final long[] min = Intervals.minAsLongArray(interval);
+		final long[] max = Intervals.maxAsLongArray(interval);
+		for (long i = 0; i < numChunks; i++) {
+			min[dim] = interval.min(dim) + i * size / numChunks;
+			max[dim] = interval.min(dim) + (i + 1) * size / numChunks - 1;
+			chunks.add(new FinalInterval(min, max));
+		}
+		return chunks;
+	}
+}
@@ -31,214 +31,254 @@ package net.imagej.modelzoo.transformation.normalize;
 
 import net.imagej.ops.OpService;
 import net.imglib2.Cursor;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Pair;
-import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
+/**
+ * Computes exact percentiles without copying or sorting all values. A first
+ * pass determines the value range, then the bin containing the percentile is
+ * refined with histograms until it is small enough to be sorted. Each pass
+ * splits the source into chunks (the cells of a cell image or slices along
+ * the last dimension), which are processed in parallel into per-thread
+ * partial results that are merged afterwards. NaN values are ignored,
+ * infinite values are counted separately and only the finite values are
+ * refined with histograms.
+ */
 public class HistogramPercentile<T extends RealType<T>> implements
 	Percentile<T>
 {
 
-	private T min;
-	private T max;
-
-//	public float[] computePercentiles2(RandomAccessibleInterval<T> src,
-//		final float[] percentiles, OpService opService)
-//	{
-//
-//		float[] resValues = new float[percentiles.length];
-//
-//		computeMinMax(opService, (IterableInterval<T>) src);
-//
-//		if (min.compareTo(max) == 0) {
-//			Arrays.fill(resValues, min.getRealFloat());
-//			return resValues;
-//		}
-//
-//		int numBins = (int) Math.pow(2, 16);
-//		List<HistogramBin> bins = createHistogram(numBins,
-//			(IterableInterval<T>) src);
-//		long pixelCount = ((IterableInterval<T>) src).size();
-//
-//		for (int i = 0; i < percentiles.length; i++) {
-//			resValues[i] = getPercentile(percentiles[i], bins, pixelCount);
-//		}
-//
-//		return resValues;
-//
-//	}
-
-	public float[] computePercentiles(RandomAccessibleInterval<T> src, final float[] percentiles, OpService opService) {
-		final Cursor< T > cursor = ((IterableInterval)src).cursor();
-		int items = 1;
-		int i = 0;
-		for ( ; i < src.numDimensions(); i++ ) {
-			items *= src.dimension( i );
-		}
-		final float[] values = new float[ items ];
-		i = 0;
-		while ( cursor.hasNext() ) {
-			cursor.fwd();
-			values[ i ] = cursor.get().getRealFloat();
-			i++;
-		}
+	private static final int NUM_BINS = 1 << 16;
+	// bins with less values are collected and sorted
+	private static final int MAX_SORTED_VALUES = 1 << 20;
+	private static final int CHUNKS_PER_THREAD = 4;
 
-		Util.quicksort( values );
+	private int numThreads = Runtime.getRuntime().availableProcessors();
 
-		final float[] res = new float[ percentiles.length ];
-		for ( i = 0; i < percentiles.length; i++ ) {
-			res[ i ] = values[ Math.min(
-					values.length - 1,
-					Math.max( 0, Math.round( ( values.length - 1 ) * percentiles[ i ] / 100.f ) ) ) ];
-		}
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
 
-//		float[] res2 = computePercentiles2(src, percentiles, opService);
-//		for(int j = 0; j < res2.length; j++) {
-//			System.out.println(res[j] + " " + res2[j]);
-//		}
+	@Override
+	public float[] computePercentiles(RandomAccessibleInterval<T> src, final float[] percentiles, OpService opService) {
+		final List<IterableInterval<T>> chunks = createChunks(src);
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+			numThreads, chunks.size()));
+		try {
+			final ValueRange range = processChunks(pool, chunks, ValueRange::new,
+				ValueRange::add, ValueRange::merge);
 
-		return res;
-	}
+			final float[] res = new float[percentiles.length];
+			if (range.count == 0) {
+				Arrays.fill(res, Float.NaN);
+				return res;
+			}
 
-	private void computeMinMax(OpService opService, IterableInterval<T> src) {
-		// System.out.println("interval size: " + src.size());
-		//
-		// long milStart = System.currentTimeMillis();
-		// final Pair<T,T> minMax =
-		// (Pair<T,T>) opService.run(GenericMinMax.class, src);
-		// long timeGeneric = System.currentTimeMillis() - milStart;
-		// milStart = System.currentTimeMillis();
-		final Pair<T, T> minMax = opService.stats().minMax(src);
-		// long timeDefault = System.currentTimeMillis() - milStart;
-		//
-		// System.out.println("Generic: " + timeGeneric / 1000.);
-		// System.out.println("Default: " + timeDefault / 1000.);
-		//
-		min = minMax.getA();
-		max = minMax.getB();
+			ValueHistogram histogram = null;
+			for (int i = 0; i < percentiles.length; i++) {
+				final long rank = Math.min(range.count - 1, Math.max(0,
+					Math.round((range.count - 1) * (double) percentiles[i] / 100.)));
+				if (rank < range.negativeInfinite) {
+					res[i] = Float.NEGATIVE_INFINITY;
+				}
+				else if (rank >= range.negativeInfinite + range.finite) {
+					res[i] = Float.POSITIVE_INFINITY;
+				}
+				else {
+					if (histogram == null) histogram = createHistogram(pool, chunks,
+						range.min, range.max);
+					res[i] = select(pool, chunks, histogram, rank - range.negativeInfinite);
+				}
+			}
+			return res;
+		}
+		finally {
+			pool.shutdownNow();
+		}
 	}
 
-	private List<HistogramBin> createHistogram(int numBins,
-		IterableInterval<T> src)
+	/**
+	 * @return the value of the given rank within the values covered by the
+	 *         histogram. The histogram range has to be finite: then the minimum
+	 *         and maximum of the range fall into the first and the last bin, so
+	 *         each refinement excludes at least one value and only bins with at
+	 *         most {@link #MAX_SORTED_VALUES} values are collected.
+	 */
+	private float select(ExecutorService pool, List<IterableInterval<T>> chunks,
+		ValueHistogram histogram, long rank)
 	{
-		List<HistogramBin> bins = new ArrayList<>(numBins);
-		float binLength = getBinLength(numBins);
-
-		for (int i = 0; i < numBins; i++)
-			bins.add(new HistogramBin());
-
-		Cursor<T> cursor = src.cursor();
-		while (cursor.hasNext()) {
-			cursor.fwd();
-			T val = cursor.get();
-			int binId = Math.min(numBins - 1, getBin(val, min, binLength));
-			HistogramBin bin = bins.get(binId);
-			bin.count++;
-			if (bin.min == null) bin.min = val.copy();
-			else if (bin.min.compareTo(val) > 0) bin.min.set(val.copy());
-			if (bin.max == null) bin.max = val.copy();
-			else if (bin.max.compareTo(val) < 0) bin.max.set(val.copy());
-		}
-		bins.get(0).min = min.copy();
-		bins.get(bins.size() - 1).max = max.copy();
-		return bins;
-	}
-
-	private float getBinLength(int numBins) {
-		return (max.getRealFloat() - min.getRealFloat()) / (float) numBins;
+		while (true) {
+			final int bin = histogram.getBin(rank);
+			rank -= histogram.getCountBelow(bin);
+			final float binMin = histogram.getMin(bin);
+			final float binMax = histogram.getMax(bin);
+			if (binMin == binMax) return binMin;
+			if (histogram.getCount(bin) <= MAX_SORTED_VALUES) {
+				final float[] binValues = processChunks(pool, chunks,
+					() -> new Values(binMin, binMax), Values::add, Values::merge)
+						.toArray();
+				Arrays.sort(binValues);
+				return binValues[(int) rank];
+			}
+			histogram = createHistogram(pool, chunks, binMin, binMax);
+		}
 	}
 
-	private int getBin(T val, T min, float binLength) {
-		T res = val.copy();
-		res.sub(min);
-		res.mul(1. / binLength);
-		return (int) res.getRealFloat();
+	private ValueHistogram createHistogram(ExecutorService pool,
+		List<IterableInterval<T>> chunks, float lower, float upper)
+	{
+		return processChunks(pool, chunks, () -> new ValueHistogram(lower, upper,
+			NUM_BINS), (histogram, chunk) -> {
+				final Cursor<T> cursor = chunk.cursor();
+				while (cursor.hasNext()) {
+					histogram.add(cursor.next().getRealFloat());
+				}
+			}, ValueHistogram::merge);
 	}
 
-	private float getPercentile(float percentile, List<HistogramBin> bins,
-		long pixelCount)
+	/**
+	 * Processes the chunks on all threads of the pool. Each thread fills its own
+	 * partial result, the partial results are merged into the first one.
+	 */
+	private <R> R processChunks(ExecutorService pool,
+		List<IterableInterval<T>> chunks, Supplier<R> createPartial,
+		BiConsumer<R, IterableInterval<T>> addChunk, BiConsumer<R, R> merge)
 	{
-		float border = pixelCount * percentile / 100.f;
-		float cur = 0;
-		int i;
-		float percentileMax, percentileMin;
-		if (percentile > 50) {
-			border = pixelCount - border;
-			for (i = bins.size() - 1; i >= 0 && cur < border; i--) {
-				cur += bins.get(i).count;
-			}
-			percentileMin = (1 - cur / pixelCount) * 100;
-			if (i < bins.size() - 1) {
-				i++;
-				percentileMax = (1 - (cur - bins.get(i).count) / pixelCount) * 100;
-			}
-			else {
-				percentileMax = 100;
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final Callable<R> worker = () -> {
+			final R partial = createPartial.get();
+			int i;
+			while ((i = nextChunk.getAndIncrement()) < chunks.size()) {
+				addChunk.accept(partial, chunks.get(i));
 			}
+			return partial;
+		};
+		final List<Future<R>> futures = new ArrayList<>();
+		for (int i = 0; i < Math.min(numThreads, chunks.size()); i++) {
+			futures.add(pool.submit(worker));
 		}
-		else {
-			for (i = 0; i < bins.size() && cur < border; i++) {
-				cur += bins.get(i).count;
-			}
-			percentileMax = cur / pixelCount * 100;
-			if (i > 0) {
-				i--;
-				percentileMin = (cur - bins.get(i).count) / pixelCount * 100;
-			}
-			else {
-				percentileMin = 0;
+		try {
+			final R res = futures.get(0).get();
+			for (int i = 1; i < futures.size(); i++) {
+				merge.accept(res, futures.get(i).get());
 			}
+			return res;
 		}
-		HistogramBin bin = bins.get(i);
-		if (percentile < percentileMax && percentile > percentileMin) {
-			return getY(percentile, percentileMin, bin.min, percentileMax, bin.max);
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Computing percentiles was interrupted", e);
 		}
-		else {
-			if (percentile < percentileMin) {
-				HistogramBin prevBin = getPreviousBin(bins, i);
-				if (prevBin != null) return getY(percentile, percentileMin, bin.min,
-					percentileMin - 1.f / (float) pixelCount, prevBin.max);
-				else return bin.min.getRealFloat();
-			}
-			else {
-				HistogramBin nextBin = getNextBin(bins, i);
-				if (nextBin != null) return getY(percentile, percentileMax, bin.max,
-					percentileMax + 1.f / (float) pixelCount, nextBin.min);
-				else return bin.max.getRealFloat();
-			}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
 		}
 	}
 
-	private float getY(float x, float x1, T y1, float x2, T y2) {
-		float m = (y2.getRealFloat() - y1.getRealFloat()) / (x2 - x1);
-		float n = (y1.getRealFloat() * x2 - y2.getRealFloat() * x1) / (x2 - x1);
-		return m*x+n;
+	private List<IterableInterval<T>> createChunks(RandomAccessibleInterval<T> src) {
+		final List<IterableInterval<T>> chunks = new ArrayList<>();
+		if (src instanceof AbstractCellImg) {
+			final RandomAccessibleInterval<? extends Interval> cells =
+				((AbstractCellImg) src).getCells();
+			for (Interval cell : Views.flatIterable(cells)) {
+				chunks.add(Views.iterable(Views.interval(src, cell)));
+			}
+			return chunks;
+		}
+		for (Interval slice : Chunks.slices(src, (long) numThreads *
+			CHUNKS_PER_THREAD))
+		{
+			chunks.add(Views.iterable(Views.interval(src, slice)));
+		}
+		return chunks;
 	}
 
-	private HistogramBin getPreviousBin(List<HistogramBin> bins, int i) {
-		while (i > 0) {
-			if (bins.get(--i).count > 0) return bins.get(i);
+	/**
+	 * Range of the finite values and the number of values, NaN excluded.
+	 */
+	private class ValueRange {
+
+		private float min = Float.POSITIVE_INFINITY;
+		private float max = Float.NEGATIVE_INFINITY;
+		private long count = 0;
+		private long finite = 0;
+		private long negativeInfinite = 0;
+
+		private void add(IterableInterval<T> chunk) {
+			final Cursor<T> cursor = chunk.cursor();
+			while (cursor.hasNext()) {
+				final float v = cursor.next().getRealFloat();
+				if (Float.isNaN(v)) continue;
+				count++;
+				if (v == Float.NEGATIVE_INFINITY) negativeInfinite++;
+				if (Float.isInfinite(v)) continue;
+				if (v < min) min = v;
+				if (v > max) max = v;
+				finite++;
+			}
 		}
-		return null;
-	}
 
-	private HistogramBin getNextBin(List<HistogramBin> bins, int i) {
-		while (i < bins.size() - 1) {
-			if (bins.get(++i).count > 0) return bins.get(i);
+		private void merge(ValueRange other) {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			count += other.count;
+			finite += other.finite;
+			negativeInfinite += other.negativeInfinite;
 		}
-		return null;
 	}
 
-	private class HistogramBin {
+	/**
+	 * Collects all values within {@code [lower, upper]}.
+	 */
+	private class Values {
 
-		int count;
-		T min;
-		T max;
+		private final float lower;
+		private final float upper;
+		private float[] data = new float[1024];
+		private int size = 0;
+
+		private Values(float lower, float upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		private void add(IterableInterval<T> chunk) {
+			final Cursor<T> cursor = chunk.cursor();
+			while (cursor.hasNext()) {
+				final float v = cursor.next().getRealFloat();
+				if (v >= lower && v <= upper) add(v);
+			}
+		}
+
+		private void add(float value) {
+			if (size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+
+		private void merge(Values other) {
+			for (int i = 0; i < other.size; i++) {
+				add(other.data[i]);
+			}
+		}
+
+		private float[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
 	}
 
 }
@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.transformation.normalize;
+
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers computed percentiles per image, so running a model on the same
+ * image again does not need another pass over the data. Entries are keyed by
+ * the identity of the image, its interval, the requested percentiles and the
+ * number of samples used to estimate them. The cache holds the images weakly
+ * and keeps at most {@link #getMaxSize()} entries, evicting the least recently
+ * used one.
+ * <p>
+ * The cache does not notice if the pixels of an image change, call
+ * {@link #invalidate(Object)} after modifying an image in place.
+ * </p>
+ */
+public class PercentileCache {
+
+	public static final int DEFAULT_MAX_SIZE = 32;
+
+	private static final PercentileCache instance = new PercentileCache(
+		DEFAULT_MAX_SIZE);
+
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+	private final LinkedHashMap<Key, Result> entries = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+			return size() > maxSize;
+		}
+	};
+
+	private int maxSize;
+	private long hits = 0;
+	private long misses = 0;
+
+	public PercentileCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the cache shared by all normalizers of this JVM
+	 */
+	public static PercentileCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the cached result or null if the percentiles of the image have
+	 *         not been computed yet
+	 */
+	public synchronized Result get(Object image, Interval interval,
+		float[] percentiles, long maxSamples)
+	{
+		expungeCollected();
+		final Result result = entries.get(new Key(image, interval, percentiles,
+			maxSamples, null));
+		if (result == null) misses++;
+		else hits++;
+		return result;
+	}
+
+	public synchronized void put(Object image, Interval interval,
+		float[] percentiles, long maxSamples, Result result)
+	{
+		expungeCollected();
+		entries.put(new Key(image, interval, percentiles, maxSamples, collected),
+			result);
+	}
+
+	/**
+	 * Removes all entries of the given image.
+	 */
+	public synchronized void invalidate(Object image) {
+		entries.keySet().removeIf(key -> key.image.get() == image);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		expungeCollected();
+		return entries.size();
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		final Iterator<Key> keys = entries.keySet().iterator();
+		while (entries.size() > maxSize && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void resetMetrics() {
+		hits = 0;
+		misses = 0;
+	}
+
+	private void expungeCollected() {
+		Reference<?> reference;
+		while ((reference = collected.poll()) != null) {
+			final Reference<?> ref = reference;
+			entries.keySet().removeIf(key -> key.image == ref);
+		}
+	}
+
+	/**
+	 * Percentiles computed by {@link PercentileNormalizer}.
+	 */
+	public static class Result {
+
+		private final float[] values;
+		private final float[] lowerBounds;
+		private final float[] upperBounds;
+		private final float rankError;
+
+		public Result(float[] values, float[] lowerBounds, float[] upperBounds,
+			float rankError)
+		{
+			this.values = values.clone();
+			this.lowerBounds = lowerBounds.clone();
+			this.upperBounds = upperBounds.clone();
+			this.rankError = rankError;
+		}
+
+		public float[] getValues() {
+			return values.clone();
+		}
+
+		public float[] getLowerBounds() {
+			return lowerBounds.clone();
+		}
+
+		public float[] getUpperBounds() {
+			return upperBounds.clone();
+		}
+
+		public float getRankError() {
+			return rankError;
+		}
+	}
+
+	private static class Key {
+
+		private final WeakReference<Object> image;
+		private final int imageHash;
+		private final long[] min;
+		private final long[] max;
+		private final float[] percentiles;
+		private final long maxSamples;
+
+		private Key(Object image, Interval interval, float[] percentiles,
+			long maxSamples, ReferenceQueue<Object> queue)
+		{
+			this.image = new WeakReference<>(image, queue);
+			this.imageHash = System.identityHashCode(image);
+			this.min = Intervals.minAsLongArray(interval);
+			this.max = Intervals.maxAsLongArray(interval);
+			this.percentiles = percentiles.clone();
+			this.maxSamples = maxSamples;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			final Key other = (Key) o;
+			final Object referent = image.get();
+			return referent != null && referent == other.image.get() &&
+				maxSamples == other.maxSamples && Arrays.equals(min, other.min) &&
+				Arrays.equals(max, other.max) && Arrays.equals(percentiles,
+					other.percentiles);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = imageHash;
+			result = 31 * result + Arrays.hashCode(min);
+			result = 31 * result + Arrays.hashCode(max);
+			result = 31 * result + Arrays.hashCode(percentiles);
+			result = 31 * result + Long.hashCode(maxSamples);
+			return result;
+		}
+	}
+
+}
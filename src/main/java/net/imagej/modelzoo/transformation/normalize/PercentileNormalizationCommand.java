@@ -8,6 +8,7 @@ import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import java.util.Arrays;
 import java.util.List;
 
 @Plugin(type= ModelZooPreprocessorCommand.class)
@@ -25,6 +26,15 @@ public class PercentileNormalizationCommand implements ModelZooPreprocessorComma
 	@Parameter
 	private boolean clip = false;
 
+	@Parameter(required = false)
+	private boolean lazy = true;
+
+	@Parameter(required = false, description = "Estimate the percentiles from at most this many values, 0 computes them exactly")
+	private long maxSamples = 0;
+
+	@Parameter(required = false, description = "Reuse percentiles computed for the same image before, only if its pixels did not change since")
+	private boolean cachePercentiles = false;
+
 	@Parameter
 	private LogService log;
 
@@ -37,15 +47,28 @@ public class PercentileNormalizationCommand implements ModelZooPreprocessorComma
 				new float[]{min, max},
 				new float[]{0f, 1f}, clip);
 		context.inject(normalizer);
+		normalizer.setLazy(lazy);
+		normalizer.setMaxSamples(maxSamples);
+		if(cachePercentiles) normalizer.setCache(PercentileCache.getInstance());
 		for (int i = 0; i < data.size(); i++) {
 			Object imgObj = data.get(i);
 			try {
 				RandomAccessibleInterval normalized = normalizer.normalize((RandomAccessibleInterval) imgObj);
 				data.set(i, normalized);
+				if(normalizer.getRankError() > 0) {
+					log.info("Estimated percentiles " + Arrays.toString(normalizer.getResValues())
+							+ " within " + Arrays.toString(normalizer.getResLowerBounds())
+							+ " and " + Arrays.toString(normalizer.getResUpperBounds())
+							+ " (rank error " + normalizer.getRankError() + ")");
+				}
 			} catch (ClassCastException e) {
 				log.error("Cannot normalize " + imgObj);
 			}
 		}
+		if(cachePercentiles) {
+			PercentileCache cache = PercentileCache.getInstance();
+			log.debug("Percentile cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+		}
 	}
 
 }
@@ -31,18 +31,29 @@ package net.imagej.modelzoo.transformation.normalize;
 
 import net.imagej.ops.OpService;
 import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
 import net.imglib2.img.Img;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
 import org.scijava.plugin.Parameter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class PercentileNormalizer<T extends RealType<T> & NativeType<T>>
 	implements Normalizer<T>
 {
 
+	private static final int CHUNKS_PER_THREAD = 4;
+
 	@Parameter
 	OpService opService;
 
@@ -50,6 +61,13 @@ public class PercentileNormalizer<T extends RealType<T> & NativeType<T>>
 	private float[] destValues = new float[] { 0, 1 };
 	private float[] resValues;
 	private boolean clip = false;
+	private boolean lazy = false;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long maxSamples = 0;
+	private float rankError = 0;
+	private float[] resLowerBounds;
+	private float[] resUpperBounds;
+	private PercentileCache cache;
 
 	protected float min;
 	protected float max;
@@ -65,6 +83,38 @@ public class PercentileNormalizer<T extends RealType<T> & NativeType<T>>
 		this.clip = clip;
 	}
 
+	/**
+	 * If set, {@link #normalize(RandomAccessibleInterval)} returns a view which
+	 * normalizes each pixel when it is accessed instead of a normalized copy of
+	 * the input. Consumers reading the pixels once, e.g. when converting the
+	 * image into a tensor, avoid allocating a float image of the input size.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * If set to a positive number, the percentiles are estimated from at most
+	 * {@code maxSamples} values of the input (see {@link SampledPercentile})
+	 * instead of computing them exactly, which needs several passes over the
+	 * whole input.
+	 */
+	public void setMaxSamples(long maxSamples) {
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * If set, computed percentiles are stored in the cache and reused when the
+	 * same image is normalized with the same percentiles again.
+	 */
+	public void setCache(PercentileCache cache) {
+		this.cache = cache;
+	}
+
 	public float normalize( final T val ) {
 		if ( clip ) { return Math.max(
 				min,
@@ -75,31 +125,132 @@ public class PercentileNormalizer<T extends RealType<T> & NativeType<T>>
 	@Override
 	public RandomAccessibleInterval<FloatType> normalize(final RandomAccessibleInterval<T> input)
 	{
-		HistogramPercentile<T> percentile = new HistogramPercentile<>();
-		resValues = percentile.computePercentiles(input, percentiles, opService);
+		computeResValues(input);
 		min = destValues[0];
 		max = destValues[1];
 		if(resValues[1] - resValues[0] < 0.0000001) factor = 1;
 		else factor = (destValues[1] - destValues[0]) / (resValues[1] - resValues[0]);
 
-		long[] dims = new long[input.numDimensions()];
-		input.dimensions(dims);
+		if(lazy) return normalizedView(input);
 
 		Img<FloatType> output = opService.create().img(input, new FloatType());
+		// the output starts at zero, chunks are given in output coordinates
+		final RandomAccessibleInterval<T> source = Views.isZeroMin(input) ? input
+			: Views.zeroMin(input);
 
-		final RandomAccess<T> in = input.randomAccess();
-		final Cursor<FloatType> out = output.localizingCursor();
-		while (out.hasNext()) {
-			out.fwd();
-			in.setPosition(out);
-			out.get().set(normalize(in.get()));
+		final List<Interval> chunks = Chunks.slices(output, (long) numThreads *
+			CHUNKS_PER_THREAD);
+		if (chunks.size() == 1 || numThreads == 1) {
+			normalize(source, output, output);
+			return output;
+		}
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+			numThreads, chunks.size()));
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (Interval chunk : chunks) {
+				futures.add(pool.submit(() -> normalize(source, output, chunk)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Normalization was interrupted", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
 		}
 
 		return output;
 	}
 
+	private void computeResValues(final RandomAccessibleInterval<T> input) {
+		if(cache != null) {
+			PercentileCache.Result cached = cache.get(input, input, percentiles, maxSamples);
+			if(cached != null) {
+				resValues = cached.getValues();
+				rankError = cached.getRankError();
+				resLowerBounds = cached.getLowerBounds();
+				resUpperBounds = cached.getUpperBounds();
+				return;
+			}
+		}
+		computeResValuesUncached(input);
+		if(cache != null) {
+			cache.put(input, input, percentiles, maxSamples, new PercentileCache.Result(
+					resValues, resLowerBounds, resUpperBounds, rankError));
+		}
+	}
+
+	private void computeResValuesUncached(final RandomAccessibleInterval<T> input) {
+		if(maxSamples > 0) {
+			SampledPercentile<T> percentile = new SampledPercentile<>();
+			percentile.setMaxSamples(maxSamples);
+			resValues = percentile.computePercentiles(input, percentiles, opService);
+			rankError = percentile.getRankError();
+			resLowerBounds = percentile.getLowerBounds();
+			resUpperBounds = percentile.getUpperBounds();
+			return;
+		}
+		HistogramPercentile<T> percentile = new HistogramPercentile<>();
+		percentile.setNumThreads(numThreads);
+		resValues = percentile.computePercentiles(input, percentiles, opService);
+		rankError = 0;
+		resLowerBounds = resValues;
+		resUpperBounds = resValues;
+	}
+
+	/**
+	 * Normalizes the chunk of the input into the output. Both are iterated in
+	 * flat order, so the cursors stay aligned without repositioning.
+	 */
+	private void normalize(final RandomAccessibleInterval<T> input,
+		final RandomAccessibleInterval<FloatType> output, final Interval chunk)
+	{
+		final Cursor<T> in = Views.flatIterable(Views.interval(input, chunk)).cursor();
+		final Cursor<FloatType> out = Views.flatIterable(Views.interval(output, chunk)).cursor();
+		while (out.hasNext()) {
+			out.next().set(normalize(in.next()));
+		}
+	}
+
+	private RandomAccessibleInterval<FloatType> normalizedView(final RandomAccessibleInterval<T> input) {
+		// the view must not change if this normalizer is used for another image
+		final float lower = resValues[0];
+		final float min = this.min;
+		final float max = this.max;
+		final float factor = this.factor;
+		final boolean clip = this.clip;
+		return Converters.convert(input, (in, out) -> {
+			final float val = (in.getRealFloat() - lower) * factor + min;
+			out.set(clip ? Math.max(min, Math.min(max, val)) : Math.max(0, val));
+		}, new FloatType());
+	}
+
 	public float[] getResValues() {
 		return resValues;
 	}
 
+	/**
+	 * @return the maximal error of the rank of the estimated percentiles in
+	 *         percentile points, 0 if they were computed exactly
+	 */
+	public float getRankError() {
+		return rankError;
+	}
+
+	public float[] getResLowerBounds() {
+		return resLowerBounds;
+	}
+
+	public float[] getResUpperBounds() {
+		return resUpperBounds;
+	}
+
 }
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.transformation.normalize;
+
+import net.imagej.ops.OpService;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.util.Arrays;
+
+/**
+ * Estimates percentiles from a strided subsample of the source instead of
+ * reading every value. At most {@code maxSamples} values are read, evenly
+ * spaced in flat iteration order, and the percentiles are taken from the
+ * sorted sample.
+ * <p>
+ * The error of the estimate is bounded with the Dvoretzky-Kiefer-Wolfowitz
+ * inequality: with the given confidence, the rank of the estimate within the
+ * whole source is off by at most {@link #getRankError()} percentile points.
+ * {@link #getLowerBounds()} and {@link #getUpperBounds()} hold the values at
+ * these ranks within the sample. The bound assumes the values are not
+ * correlated with the sampling stride.
+ * </p>
+ */
+public class SampledPercentile<T extends RealType<T>> implements
+	Percentile<T>
+{
+
+	public static final long DEFAULT_MAX_SAMPLES = 1 << 20;
+
+	private long maxSamples = DEFAULT_MAX_SAMPLES;
+	private double confidence = 0.99;
+
+	private float rankError;
+	private float[] lowerBounds;
+	private float[] upperBounds;
+
+	public void setMaxSamples(long maxSamples) {
+		this.maxSamples = Math.max(1, Math.min(Integer.MAX_VALUE - 8,
+			maxSamples));
+	}
+
+	public void setConfidence(double confidence) {
+		this.confidence = confidence;
+	}
+
+	@Override
+	public float[] computePercentiles(RandomAccessibleInterval<T> src, final float[] percentiles, OpService opService) {
+		final long size = Intervals.numElements(src);
+		final long stride = Math.max(1, (size + maxSamples - 1) / maxSamples);
+		final float[] samples = sample(src, size, stride);
+		Arrays.sort(samples);
+
+		final float[] res = new float[percentiles.length];
+		lowerBounds = new float[percentiles.length];
+		upperBounds = new float[percentiles.length];
+		if (samples.length == 0) {
+			rankError = 0;
+			Arrays.fill(res, Float.NaN);
+			Arrays.fill(lowerBounds, Float.NaN);
+			Arrays.fill(upperBounds, Float.NaN);
+			return res;
+		}
+		// reading every value gives the exact percentiles
+		rankError = stride == 1 ? 0 : (float) (100 * Math.sqrt(Math.log(2 /
+			(1 - confidence)) / (2. * samples.length)));
+		for (int i = 0; i < percentiles.length; i++) {
+			res[i] = get(samples, percentiles[i]);
+			lowerBounds[i] = get(samples, percentiles[i] - rankError);
+			upperBounds[i] = get(samples, percentiles[i] + rankError);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the maximal error of the rank of the last computed percentiles in
+	 *         percentile points
+	 */
+	public float getRankError() {
+		return rankError;
+	}
+
+	/**
+	 * @return for each of the last computed percentiles, the lowest value the
+	 *         exact percentile is expected to have
+	 */
+	public float[] getLowerBounds() {
+		return lowerBounds;
+	}
+
+	/**
+	 * @return for each of the last computed percentiles, the highest value the
+	 *         exact percentile is expected to have
+	 */
+	public float[] getUpperBounds() {
+		return upperBounds;
+	}
+
+	private float[] sample(RandomAccessibleInterval<T> src, long size,
+		long stride)
+	{
+		float[] samples = new float[(int) ((size + stride - 1) / stride)];
+		int count = 0;
+		final Cursor<T> cursor = Views.flatIterable(src).cursor();
+		// start in the middle of the first stride
+		long position = (stride - 1) / 2;
+		cursor.jumpFwd(position + 1);
+		while (position < size) {
+			final float value = cursor.get().getRealFloat();
+			if (!Float.isNaN(value)) samples[count++] = value;
+			position += stride;
+			if (position < size) cursor.jumpFwd(stride);
+		}
+		return count == samples.length ? samples : Arrays.copyOf(samples, count);
+	}
+
+	private static float get(float[] sortedValues, float percentile) {
+		final double p = Math.min(100, Math.max(0, percentile));
+		final int rank = (int) Math.round((sortedValues.length - 1) * p / 100.);
+		return sortedValues[rank];
+	}
+
+}
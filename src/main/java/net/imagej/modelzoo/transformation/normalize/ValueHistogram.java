@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * ImageJ ModelZoo Consumer
+ * %%
+ * Copyright (C) 2019 MPI-CBG
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.modelzoo.transformation.normalize;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of the values within {@code [lower, upper]}, keeping the exact
+ * minimum and maximum value of each bin. Since the bin index grows
+ * monotonically with the value, the values of a bin are exactly the values
+ * within the bin's minimum and maximum, which allows refining a bin with
+ * another histogram without losing precision. Values outside of the range and
+ * NaN values are ignored.
+ */
+class ValueHistogram {
+
+	private final float lower;
+	private final float upper;
+	private final double scale;
+	private final long[] counts;
+	private final float[] binMin;
+	private final float[] binMax;
+
+	ValueHistogram(final float lower, final float upper, final int numBins) {
+		this.lower = lower;
+		this.upper = upper;
+		this.scale = upper > lower ? numBins / ((double) upper - lower) : 0;
+		counts = new long[numBins];
+		binMin = new float[numBins];
+		binMax = new float[numBins];
+		Arrays.fill(binMin, Float.POSITIVE_INFINITY);
+		Arrays.fill(binMax, Float.NEGATIVE_INFINITY);
+	}
+
+	void add(final float value) {
+		if (!(value >= lower && value <= upper)) return;
+		final int bin = Math.min(counts.length - 1, (int) (((double) value - lower) * scale));
+		counts[bin]++;
+		if (value < binMin[bin]) binMin[bin] = value;
+		if (value > binMax[bin]) binMax[bin] = value;
+	}
+
+	/**
+	 * Adds the counts of another histogram with the same range and number of
+	 * bins.
+	 */
+	void merge(final ValueHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+			binMin[i] = Math.min(binMin[i], other.binMin[i]);
+			binMax[i] = Math.max(binMax[i], other.binMax[i]);
+		}
+	}
+
+	/**
+	 * @return the index of the bin containing the value of the given rank,
+	 *         counting from 0 in ascending order
+	 */
+	int getBin(final long rank) {
+		long cur = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cur += counts[i];
+			if (rank < cur) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of values in the bins below {@code bin}
+	 */
+	long getCountBelow(final int bin) {
+		long res = 0;
+		for (int i = 0; i < bin; i++) {
+			res += counts[i];
+		}
+		return res;
+	}
+
+	long getCount(final int bin) {
+		return counts[bin];
+	}
+
+	float getMin(final int bin) {
+		return binMin[bin];
+	}
+
+	float getMax(final int bin) {
+		return binMax[bin];
+	}
+
+}
@@ -100,9 +100,6 @@ package net.imglib2;
  * POSSIBILITY OF SUCH DAMAGE.
  * #L%
  */
-import java.util.HashMap;
-import java.util.Map;
-
 import net.imglib2.AbstractCursor;
 import net.imglib2.AbstractInterval;
 import net.imglib2.Cursor;
@@ -112,6 +109,7 @@ import net.imglib2.Point;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.View;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
@@ -218,16 +216,24 @@ public class GridView<T> extends AbstractInterval implements
 
 		private final long[] blockSize;
 
-		// TODO: Replace with faster primitive hashmap (e.g. Koloboke
-		// Collections ) must be BSD or Apache
-		private final HashMap<Long, RandomAccess<T>> blockAccesses;
+		/**
+		 * Random accesses of the blocks which have been accessed, indexed by the
+		 * flat index of the block in the grid.
+		 */
+		private final RandomAccess<T>[] blockAccesses;
 
 		private final long[] tempIndex;
 
 		private final long[] tempOffset;
 
+		/**
+		 * Position of the first pixel of the block of {@link #tempBlockAccess}.
+		 */
+		private final long[] tempBlockMin;
+
 		private RandomAccess<T> tempBlockAccess;
 
+		@SuppressWarnings("unchecked")
 		public GridViewRandomAccess(
 			final RandomAccessibleInterval<? extends RandomAccessibleInterval<T>> source,
 			final long[] blockSize)
@@ -236,9 +242,10 @@ public class GridView<T> extends AbstractInterval implements
 			this.source = source;
 			sourceAccess = source.randomAccess();
 			this.blockSize = blockSize;
-			blockAccesses = new HashMap<>();
+			blockAccesses = new RandomAccess[(int) Intervals.numElements(source)];
 			tempIndex = new long[n];
 			tempOffset = new long[n];
+			tempBlockMin = new long[n];
 		}
 
 		private GridViewRandomAccess(final GridViewRandomAccess<T> ra) {
@@ -246,37 +253,57 @@ public class GridView<T> extends AbstractInterval implements
 			source = ra.source;
 			sourceAccess = ra.sourceAccess.copyRandomAccess();
 			blockSize = ra.blockSize;
-			blockAccesses = new HashMap<>(ra.blockAccesses.size());
-			for (final Map.Entry<Long, RandomAccess<T>> entry : ra.blockAccesses
-				.entrySet())
-			{
-				blockAccesses.put(entry.getKey(), entry.getValue().copyRandomAccess());
+			blockAccesses = ra.blockAccesses.clone();
+			for (int i = 0; i < blockAccesses.length; i++) {
+				if (blockAccesses[i] != null) {
+					blockAccesses[i] = blockAccesses[i].copyRandomAccess();
+				}
 			}
 			tempIndex = ra.tempIndex.clone();
 			tempOffset = ra.tempOffset.clone();
+			tempBlockMin = ra.tempBlockMin.clone();
 		}
 
 		@Override
 		public T get() {
-			long flatIndex = 0;
+			// consecutive accesses usually hit the same block
+			if (tempBlockAccess == null || !isInCurrentBlock()) {
+				selectBlock();
+			}
+			for (int d = 0; d < n; ++d) {
+				tempOffset[d] = position[d] - tempBlockMin[d];
+			}
+			tempBlockAccess.setPosition(tempOffset);
+			return tempBlockAccess.get();
+		}
+
+		private boolean isInCurrentBlock() {
+			for (int d = 0; d < n; ++d) {
+				final long offset = position[d] - tempBlockMin[d];
+				if (offset < 0 || offset >= blockSize[d]) return false;
+			}
+			return true;
+		}
+
+		private void selectBlock() {
+			int flatIndex = 0;
 			for (int d = n - 1; d >= 0; --d) {
 				final long normalizedPosition = position[d] - source.min(d);
 				tempIndex[d] = normalizedPosition / blockSize[d];
-				tempOffset[d] = normalizedPosition % blockSize[d];
-				flatIndex = flatIndex * source.dimension(d) + tempIndex[d];
+				tempBlockMin[d] = source.min(d) + tempIndex[d] * blockSize[d];
+				flatIndex = flatIndex * (int) source.dimension(d) + (int) tempIndex[d];
 			}
-
-			tempBlockAccess = blockAccesses.computeIfAbsent(flatIndex, idx -> {
+			tempBlockAccess = blockAccesses[flatIndex];
+			if (tempBlockAccess == null) {
 				sourceAccess.setPosition(tempIndex);
 				// TODO: [Review] There are more efficient ways than creating a
-				// new view each time. E.g, we could wrap the block's random
+				// new view for each block. E.g, we could wrap the block's random
 				// access in an own random access that deals with translation
 				// (unfortunately, net.imglib2.view.TranslationRandomAccess has
 				// no public constructor).
-				return Views.zeroMin(sourceAccess.get()).randomAccess();
-			});
-			tempBlockAccess.setPosition(tempOffset);
-			return tempBlockAccess.get();
+				tempBlockAccess = Views.zeroMin(sourceAccess.get()).randomAccess();
+				blockAccesses[flatIndex] = tempBlockAccess;
+			}
 		}
 
 		@Override
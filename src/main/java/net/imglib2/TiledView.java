@@ -113,6 +113,17 @@ public class TiledView<T> extends AbstractInterval implements
 		return randomAccess();
 	}
 
+	/**
+	 * @param reuseTileViews if true, {@link TiledViewRandomAccess#get()} returns
+	 *          the same {@link TileView} each time, moved to the current tile.
+	 *          Only use this if a tile is not needed anymore when accessing the
+	 *          next one.
+	 */
+	public TiledViewRandomAccess<T> randomAccess(final boolean reuseTileViews) {
+		return new TiledViewRandomAccess<>(source, blockSize, max, overlap,
+			reuseTileViews);
+	}
+
 	public static class TiledViewRandomAccess<T> extends Point implements
 		RandomAccess<RandomAccessibleInterval<T>>
 	{
@@ -129,8 +140,17 @@ public class TiledView<T> extends AbstractInterval implements
 
 		private final long[] tempMax;
 
+		private final TileView<T> tempTile;
+
 		public TiledViewRandomAccess(final RandomAccessibleInterval<T> source,
 			final long[] blockSize, final long[] max, final long[] overlap)
+		{
+			this(source, blockSize, max, overlap, false);
+		}
+
+		public TiledViewRandomAccess(final RandomAccessibleInterval<T> source,
+			final long[] blockSize, final long[] max, final long[] overlap,
+			final boolean reuseTileViews)
 		{
 			super(source.numDimensions());
 			this.source = source;
@@ -139,6 +159,7 @@ public class TiledView<T> extends AbstractInterval implements
 			this.max = max;
 			tempMin = new long[n];
 			tempMax = new long[n];
+			tempTile = reuseTileViews ? new TileView<>(source) : null;
 		}
 
 		private TiledViewRandomAccess(final TiledViewRandomAccess<T> ra) {
@@ -149,6 +170,7 @@ public class TiledView<T> extends AbstractInterval implements
 			max = ra.max;
 			tempMin = ra.tempMin.clone();
 			tempMax = ra.tempMax.clone();
+			tempTile = ra.tempTile == null ? null : new TileView<>(source);
 		}
 
 		@Override
@@ -165,13 +187,12 @@ public class TiledView<T> extends AbstractInterval implements
 				tempMin[d] -= overlap[d];
 				tempMax[d] += overlap[d];
 			}
-			// TODO: [Review] Creating multiple views per call probably isn't
-			// what we want.
-			// - zeroMin: do we want to ensure zeroMin at all? if yes: see
-			// remarks at CombinedView.get() (--> RandomAccess that handles
-			// translation)
-			// - ínterval: maintain an unsafe interval view whose bounds are
-			// updated each time this.get() is called?
+			if (tempTile != null) {
+				tempTile.setBounds(tempMin, tempMax);
+				return tempTile;
+			}
+			// Callers keeping several tiles at the same time need independent
+			// views, reusing them is opt-in (see TiledView#randomAccess(boolean)).
 			return Views.zeroMin(Views.interval(source, tempMin, tempMax));
 		}
 
@@ -185,4 +206,83 @@ public class TiledView<T> extends AbstractInterval implements
 			return copy();
 		}
 	}
+
+	/**
+	 * Zero-min view on a single tile of the source. The bounds are updated in
+	 * place by {@link TiledViewRandomAccess#get()}, random accesses created on
+	 * the view follow it to the new tile.
+	 */
+	public static class TileView<T> extends AbstractInterval implements
+		RandomAccessibleInterval<T>, View
+	{
+
+		private final RandomAccessibleInterval<T> source;
+
+		private final long[] offset;
+
+		private TileView(final RandomAccessibleInterval<T> source) {
+			super(source.numDimensions());
+			this.source = source;
+			offset = new long[n];
+		}
+
+		private void setBounds(final long[] tileMin, final long[] tileMax) {
+			for (int d = 0; d < n; ++d) {
+				offset[d] = tileMin[d];
+				min[d] = 0;
+				max[d] = tileMax[d] - tileMin[d];
+			}
+		}
+
+		@Override
+		public TileRandomAccess<T> randomAccess() {
+			return new TileRandomAccess<>(source.randomAccess(), offset);
+		}
+
+		@Override
+		public TileRandomAccess<T> randomAccess(final Interval interval) {
+			return randomAccess();
+		}
+	}
+
+	public static class TileRandomAccess<T> extends Point implements
+		RandomAccess<T>
+	{
+
+		private final RandomAccess<T> sourceAccess;
+
+		private final long[] offset;
+
+		private TileRandomAccess(final RandomAccess<T> sourceAccess,
+			final long[] offset)
+		{
+			super(sourceAccess.numDimensions());
+			this.sourceAccess = sourceAccess;
+			this.offset = offset;
+		}
+
+		private TileRandomAccess(final TileRandomAccess<T> ra) {
+			super(ra.position, true);
+			sourceAccess = ra.sourceAccess.copyRandomAccess();
+			offset = ra.offset;
+		}
+
+		@Override
+		public T get() {
+			for (int d = 0; d < n; ++d) {
+				sourceAccess.setPosition(position[d] + offset[d], d);
+			}
+			return sourceAccess.get();
+		}
+
+		@Override
+		public TileRandomAccess<T> copy() {
+			return new TileRandomAccess<>(this);
+		}
+
+		@Override
+		public TileRandomAccess<T> copyRandomAccess() {
+			return copy();
+		}
+	}
 }
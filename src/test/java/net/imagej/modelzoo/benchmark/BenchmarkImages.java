@@ -0,0 +1,48 @@
+package net.imagej.modelzoo.benchmark;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Creates the random images used by the benchmarks.
+ */
+class BenchmarkImages {
+
+	/**
+	 * @param size dimensions separated by {@code x}, e.g. {@code 512x512}
+	 */
+	static long[] parseSize(String size) {
+		return Arrays.stream(size.split("x")).mapToLong(Long::parseLong).toArray();
+	}
+
+	/**
+	 * @param type one of {@code float}, {@code uint16}, {@code uint8}
+	 */
+	static Img create(String type, long[] dims) {
+		Img img;
+		switch (type) {
+			case "float":
+				img = ArrayImgs.floats(dims);
+				break;
+			case "uint16":
+				img = ArrayImgs.unsignedShorts(dims);
+				break;
+			case "uint8":
+				img = ArrayImgs.unsignedBytes(dims);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown pixel type " + type);
+		}
+		Random random = new Random(42);
+		for (Object pixel : img) {
+			RealType value = (RealType) pixel;
+			value.setReal(random.nextDouble() * Math.min(255, value.getMaxValue()));
+		}
+		return img;
+	}
+
+}
@@ -0,0 +1,21 @@
+package net.imagej.modelzoo.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.io.IOException;
+
+/**
+ * Runs all benchmarks of this package, e.g. from the IDE. Command line
+ * arguments are passed to JMH, e.g. {@code -p size=512x512} or a regular
+ * expression selecting the benchmarks.
+ */
+public class Benchmarks {
+
+	public static void main(String... args) throws IOException {
+		if (args.length == 0) {
+			args = new String[] { Benchmarks.class.getPackage().getName() + ".*Benchmark" };
+		}
+		Main.main(args);
+	}
+
+}
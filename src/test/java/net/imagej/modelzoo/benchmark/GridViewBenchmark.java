@@ -0,0 +1,102 @@
+package net.imagej.modelzoo.benchmark;
+
+import net.imglib2.GridView;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.list.ListImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures iterating over a {@link GridView} combining image blocks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GridViewBenchmark {
+
+	@Param({ "512x512", "2048x2048", "32x256x256" })
+	public String size;
+
+	@Param({ "float", "uint8" })
+	public String type;
+
+	@Param({ "4" })
+	public int blocksPerDim;
+
+	private GridView<RealType> gridView;
+
+	@Setup
+	public void createGrid() {
+		long[] dims = BenchmarkImages.parseSize(size);
+		long[] grid = new long[dims.length];
+		long[] blockSize = new long[dims.length];
+		int numBlocks = 1;
+		for (int d = 0; d < dims.length; d++) {
+			grid[d] = Math.min(blocksPerDim, dims[d]);
+			blockSize[d] = dims[d] / grid[d];
+			numBlocks *= grid[d];
+		}
+		List<RandomAccessibleInterval<RealType>> blocks = new ArrayList<>(numBlocks);
+		for (int i = 0; i < numBlocks; i++) {
+			Img<RealType> block = BenchmarkImages.create(type, blockSize);
+			blocks.add(block);
+		}
+		gridView = new GridView<>(new ListImg<>(blocks, grid));
+	}
+
+	@Benchmark
+	public double cursor() {
+		double sum = 0;
+		for (RealType pixel : gridView) {
+			sum += pixel.getRealDouble();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double randomAccess() {
+		double sum = 0;
+		RandomAccess<RealType> access = gridView.randomAccess();
+		long[] position = new long[gridView.numDimensions()];
+		for (long i = 0; i < gridView.size(); i++) {
+			access.setPosition(position);
+			sum += access.get().getRealDouble();
+			// move along the first dimension, wrapping to the next line
+			for (int d = 0; d < position.length; d++) {
+				if (++position[d] < gridView.dimension(d)) break;
+				position[d] = 0;
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double flatIterable() {
+		double sum = 0;
+		for (RealType pixel : Views.flatIterable(gridView)) {
+			sum += pixel.getRealDouble();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,49 @@
+package net.imagej.modelzoo.benchmark;
+
+import net.imagej.modelzoo.transformation.normalize.HistogramPercentile;
+import net.imglib2.img.Img;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the percentiles used for normalizing the model input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PercentileBenchmark {
+
+	@Param({ "512x512", "2048x2048", "32x256x256" })
+	public String size;
+
+	@Param({ "float", "uint16", "uint8" })
+	public String type;
+
+	private final float[] percentiles = { 3f, 99.8f };
+	private Img image;
+
+	@Setup
+	public void createImage() {
+		image = BenchmarkImages.create(type, BenchmarkImages.parseSize(size));
+	}
+
+	@Benchmark
+	public float[] computePercentiles() {
+		return new HistogramPercentile().computePercentiles(image, percentiles, null);
+	}
+
+}
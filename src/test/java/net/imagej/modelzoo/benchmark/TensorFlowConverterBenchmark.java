@@ -0,0 +1,75 @@
+package net.imagej.modelzoo.benchmark;
+
+import net.imagej.modelzoo.consumer.network.model.tensorflow.TensorFlowConverter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.Tensor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting images into TensorFlow tensors and back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TensorFlowConverterBenchmark {
+
+	@Param({ "512x512", "2048x2048", "32x256x256" })
+	public String size;
+
+	@Param({ "float", "uint16", "uint8" })
+	public String type;
+
+	// reversed dimensions allow a bulk copy from array images
+	@Param({ "reversed", "identity" })
+	public String mappingOrder;
+
+	private Img image;
+	private int[] mapping;
+	private Tensor tensor;
+
+	@Setup
+	public void createData() {
+		long[] dims = BenchmarkImages.parseSize(size);
+		image = BenchmarkImages.create(type, dims);
+		mapping = new int[dims.length];
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = mappingOrder.equals("reversed") ? mapping.length - 1 - i : i;
+		}
+		tensor = TensorFlowConverter.imageToTensor(image, mapping);
+	}
+
+	@TearDown
+	public void closeTensor() {
+		tensor.close();
+	}
+
+	@Benchmark
+	public long imageToTensor() {
+		try (Tensor result = TensorFlowConverter.imageToTensor(image, mapping)) {
+			return result.numBytes();
+		}
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval fromTensor() {
+		return TensorFlowConverter.fromTensor(tensor, mapping);
+	}
+
+}
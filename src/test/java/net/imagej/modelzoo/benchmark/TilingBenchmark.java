@@ -0,0 +1,115 @@
+package net.imagej.modelzoo.benchmark;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.consumer.task.DefaultTask;
+import net.imagej.modelzoo.consumer.task.Task;
+import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
+import net.imagej.modelzoo.consumer.tiling.DefaultTiling;
+import net.imagej.modelzoo.consumer.tiling.Tiling;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting an image into tiles and stitching the tiles together
+ * again, without running a model in between.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TilingBenchmark {
+
+	@Param({ "512x512", "2048x2048", "32x256x256" })
+	public String size;
+
+	@Param({ "float", "uint16" })
+	public String type;
+
+	@Param({ "8" })
+	public int tiles;
+
+	private final Task task = new DefaultTask();
+	private Img input;
+	private AxisType[] axes;
+	private Tiling.TilingAction[] actions;
+
+	@Setup(Level.Trial)
+	public void createImage() {
+		long[] dims = BenchmarkImages.parseSize(size);
+		input = BenchmarkImages.create(type, dims);
+		axes = dims.length == 2 ? new AxisType[] { Axes.X, Axes.Y }
+				: new AxisType[] { Axes.Z, Axes.X, Axes.Y };
+		actions = new Tiling.TilingAction[dims.length];
+		Arrays.fill(actions, Tiling.TilingAction.TILE_WITH_PADDING);
+	}
+
+	@State(Scope.Thread)
+	public static class Processed {
+
+		@Param({ "DIRECT", "VIEWS" })
+		public DefaultTiling.AssemblyMode assemblyMode;
+
+		private DefaultTiling tiling;
+		private AdvancedTiledView tiledView;
+
+		@Setup(Level.Invocation)
+		public void createTiles(TilingBenchmark benchmark) {
+			// postprocess replaces the processed tiles, they have to be recreated
+			tiling = benchmark.createTiling();
+			tiling.setAssemblyMode(assemblyMode);
+			tiledView = benchmark.collectTiles(tiling.preprocess(benchmark.input,
+					benchmark.axes, benchmark.actions, benchmark.task));
+		}
+	}
+
+	@Benchmark
+	public AdvancedTiledView preprocess() {
+		return collectTiles(createTiling().preprocess(input, axes, actions, task));
+	}
+
+	@Benchmark
+	public double postprocess(Processed processed) {
+		RandomAccessibleInterval<RealType> output = processed.tiling.postprocess(
+				task, processed.tiledView, axes);
+		// lazy assembly only pays when the output is accessed
+		double sum = 0;
+		for (RealType pixel : Views.flatIterable(output)) {
+			sum += pixel.getRealDouble();
+		}
+		return sum;
+	}
+
+	private DefaultTiling createTiling() {
+		return new DefaultTiling(tiles, 1, 4, 16);
+	}
+
+	private AdvancedTiledView collectTiles(AdvancedTiledView tiledView) {
+		Cursor<RandomAccessibleInterval> cursor = Views.iterable(tiledView).cursor();
+		while (cursor.hasNext()) {
+			tiledView.getProcessedTiles().add(cursor.next());
+		}
+		return tiledView;
+	}
+
+}
@@ -0,0 +1,136 @@
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.AbstractModelZooTest;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPredictionTest extends AbstractModelZooTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOutputsInInputOrder() {
+		createImageJ();
+		final AxisType[] axes = { Axes.X, Axes.Y };
+		final List<Dataset> inputs = Arrays.asList(
+				createDataset(new FloatType(), new long[]{ 32, 16 }, axes),
+				createDataset(new FloatType(), new long[]{ 16, 48 }, axes),
+				createDataset(new FloatType(), new long[]{ 24, 24 }, axes));
+		final BatchPrediction prediction = createPrediction();
+		prediction.setPrefetch(3);
+		final List<RandomAccessibleInterval> outputs = prediction.run(inputs);
+		assertEquals(inputs.size(), outputs.size());
+		for (int i = 0; i < inputs.size(); i++) {
+			assertNotNull(outputs.get(i));
+			testResultSize(inputs.get(i), outputs.get(i));
+		}
+	}
+
+	@Test
+	public void testSkipsUnreadableInput() {
+		createImageJ();
+		final AxisType[] axes = { Axes.X, Axes.Y };
+		final Dataset first = createDataset(new FloatType(), new long[]{ 32, 16 }, axes);
+		final Dataset last = createDataset(new FloatType(), new long[]{ 16, 48 }, axes);
+		final List<Object> inputs = Arrays.asList(first, new File("/some/non/existing/image.tif"), last);
+		final List<RandomAccessibleInterval> outputs = createPrediction().run(inputs);
+		assertEquals(3, outputs.size());
+		assertNotNull(outputs.get(0));
+		assertNull(outputs.get(1));
+		assertNotNull(outputs.get(2));
+		testResultSize(first, outputs.get(0));
+		testResultSize(last, outputs.get(2));
+	}
+
+	@Test
+	public void testSkipsInputFailingPrediction() {
+		createImageJ();
+		final AxisType[] axes = { Axes.X, Axes.Y };
+		final Dataset first = createDataset(new FloatType(), new long[]{ 32, 16 }, axes);
+		final Dataset last = createDataset(new FloatType(), new long[]{ 16, 48 }, axes);
+		// reading any pixel of this input throws
+		final RandomAccessibleInterval<FloatType> broken = Converters.convert(
+				(RandomAccessibleInterval<FloatType>) ArrayImgs.floats(24, 24),
+				(in, out) -> {
+					throw new IllegalStateException("broken input");
+				}, new FloatType());
+		final List<Object> inputs = Arrays.asList(first, broken, last);
+		final List<RandomAccessibleInterval> outputs = createPrediction().run(inputs);
+		assertEquals(3, outputs.size());
+		assertNotNull(outputs.get(0));
+		assertNull(outputs.get(1));
+		assertNotNull(outputs.get(2));
+		testResultSize(first, outputs.get(0));
+		testResultSize(last, outputs.get(2));
+	}
+
+	@Test
+	public void testCommandSkipsUnreadableFile() throws IOException, ExecutionException, InterruptedException {
+		createImageJ();
+		final File inputDirectory = folder.newFolder("input");
+		final File outputDirectory = folder.newFolder("output");
+		final AxisType[] axes = { Axes.X, Axes.Y };
+		ij.io().save(createDataset(new FloatType(), new long[]{ 32, 16 }, axes), new File(inputDirectory, "a.tif").getAbsolutePath());
+		ij.io().save(createDataset(new FloatType(), new long[]{ 16, 48 }, axes), new File(inputDirectory, "c.tif").getAbsolutePath());
+		Files.write(new File(inputDirectory, "b.tif").toPath(), "not an image".getBytes());
+		ij.command().run(ModelZooBatchPredictionCommand.class, false,
+				"inputDirectory", inputDirectory,
+				"outputDirectory", outputDirectory,
+				"modelFile", getModelFile()).get();
+		assertTrue(new File(outputDirectory, "a.tif").exists());
+		assertFalse(new File(outputDirectory, "b.tif").exists());
+		assertTrue(new File(outputDirectory, "c.tif").exists());
+	}
+
+	@Test
+	public void testOutputNamesAreUnique() {
+		final BatchPrediction prediction = new BatchPrediction();
+		prediction.setOutputDirectory(new File("out"));
+		final Set<String> usedNames = new HashSet<>();
+		final File png = prediction.getOutputFile(new File("in/a.png"), 0, usedNames);
+		final File tif = prediction.getOutputFile("in/a.tif", 1, usedNames);
+		final File other = prediction.getOutputFile(new File("in/b.tif"), 2, usedNames);
+		assertEquals("a.tif", png.getName());
+		assertNotEquals(png, tif);
+		assertEquals("b.tif", other.getName());
+	}
+
+	private BatchPrediction createPrediction() {
+		final BatchPrediction prediction = new BatchPrediction();
+		ij.context().inject(prediction);
+		prediction.setModelFromFile(getModelFile());
+		return prediction;
+	}
+
+	private File getModelFile() {
+		final URL networkUrl = this.getClass().getResource("denoise2D/model.zip");
+		return new File(networkUrl.getPath());
+	}
+
+}
@@ -0,0 +1,195 @@
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.modelzoo.AbstractModelZooTest;
+import net.imagej.modelzoo.consumer.network.model.DefaultModel;
+import net.imagej.modelzoo.consumer.network.model.DefaultModelZooAxis;
+import net.imagej.modelzoo.consumer.network.model.InputNode;
+import net.imagej.modelzoo.consumer.network.model.ModelZooNode;
+import net.imagej.modelzoo.consumer.network.model.OutputNode;
+import net.imagej.modelzoo.consumer.network.model.TilePipeline;
+import net.imagej.modelzoo.consumer.tiling.Tiling;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+import org.scijava.io.location.Location;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PredictionExecutorTest extends AbstractModelZooTest {
+
+	@Test
+	public void testMultipleWorkers() {
+		createImageJ();
+		final Img<FloatType> input = ArrayImgs.floats(64, 96);
+		float i = 0;
+		for (FloatType pixel : input) {
+			pixel.setReal(i++);
+		}
+		final IdentityModel model = new IdentityModel(input);
+		ij.context().inject(model);
+
+		final PredictionExecutor executor = new PredictionExecutor();
+		executor.setModel(model);
+		executor.setNumberOfTiles(8);
+		executor.setNumWorkers(3);
+		executor.run();
+
+		final RandomAccessibleInterval<FloatType> output =
+				(RandomAccessibleInterval<FloatType>) model.getOutputNodes().get(0).getData();
+		assertNotNull(output);
+		compareDimensions(input, output);
+		final Cursor<FloatType> expected = input.cursor();
+		final Cursor<FloatType> actual = Views.flatIterable(output).cursor();
+		while (expected.hasNext()) {
+			assertEquals(expected.next().get(), actual.next().get(), 0);
+		}
+		assertTrue(model.maxRunning.get() > 1);
+	}
+
+	@Test
+	public void testExplicitTilingUsesHalo() {
+		createImageJ();
+		final IdentityModel model = new IdentityModel(ArrayImgs.floats(64, 96));
+		ij.context().inject(model);
+
+		final PredictionExecutor executor = new PredictionExecutor();
+		executor.setModel(model);
+		executor.setNumberOfTiles(8);
+		executor.run();
+
+		// 3 x 3 tiles of 24 x 32 pixels, padded by the halo of 8 pixels instead of the default overlap
+		assertNotNull(model.tileDims);
+		assertArrayEquals(new long[] { 40, 48 }, model.tileDims);
+	}
+
+	@Test
+	public void testResetClearsPreviousRun() {
+		final IdentityModel model = new IdentityModel(ArrayImgs.floats(10, 10));
+		model.getInputNodes().get(0).getAxis(0).getAttributes().put("actual", 7L);
+		model.setTilesPerBatch(4);
+		model.reset();
+		final InputNode inputNode = model.getInputNodes().get(0);
+		assertNull(inputNode.getData());
+		assertNull(inputNode.getDataMapping());
+		assertNull(inputNode.getAxis(0).getAttributes().get("actual"));
+		assertEquals(4, inputNode.getAxis(0).getAttributes().get("min"));
+		assertEquals(1, model.getTilesPerBatch());
+	}
+
+	/**
+	 * Returns its input, running slowly enough for the workers to overlap.
+	 */
+	private static class IdentityModel extends DefaultModel<FloatType> {
+
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private volatile long[] tileDims;
+
+		private IdentityModel(Img<FloatType> input) {
+			InputNode inputNode = new InputNode();
+			inputNode.setName("input");
+			addAxes(inputNode);
+			for (int d = 0; d < 2; d++) {
+				inputNode.getAxis(d).getAttributes().put("min", 4);
+				inputNode.getAxis(d).getAttributes().put("step", 4);
+				inputNode.getAxis(d).getAttributes().put("tiling", Tiling.TilingAction.TILE_WITH_PADDING);
+			}
+			inputNode.setDataMapping(Arrays.asList(Axes.X, Axes.Y));
+			inputNode.setData(input);
+			OutputNode outputNode = new OutputNode();
+			outputNode.setName("output");
+			addAxes(outputNode);
+			for (int d = 0; d < 2; d++) {
+				outputNode.getAxis(d).getAttributes().put("scale", 1);
+				outputNode.getAxis(d).getAttributes().put("offset", 0);
+				outputNode.getAxis(d).getAttributes().put("halo", 8);
+			}
+			outputNode.setDataMapping(Arrays.asList(Axes.X, Axes.Y));
+			outputNode.setReference(inputNode);
+			inputNodes.add(inputNode);
+			outputNodes.add(outputNode);
+		}
+
+		private static void addAxes(ModelZooNode node) {
+			for (AxisType axis : new AxisType[] { Axes.X, Axes.Y }) {
+				node.addAxis(new DefaultModelZooAxis(axis));
+			}
+		}
+
+		@Override
+		protected boolean loadModel(Location source, String modelName) {
+			return true;
+		}
+
+		@Override
+		protected TilePipeline.Stages<?, ?> getStages() {
+			return new TilePipeline.Stages<Img<FloatType>, Img<FloatType>>() {
+
+				@Override
+				public Img<FloatType> prepare(List<Object> inputData) {
+					// the tile view is reused for the next tile, keep a copy
+					RandomAccessibleInterval<FloatType> tile = (RandomAccessibleInterval<FloatType>) inputData.get(0);
+					tileDims = Intervals.dimensionsAsLongArray(tile);
+					Img<FloatType> copy = ArrayImgs.floats(Intervals.dimensionsAsLongArray(tile));
+					Cursor<FloatType> in = Views.flatIterable(tile).cursor();
+					for (FloatType pixel : copy) {
+						pixel.set(in.next());
+					}
+					return copy;
+				}
+
+				@Override
+				public Img<FloatType> execute(Img<FloatType> inputs) {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						Thread.sleep(50);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					finally {
+						running.decrementAndGet();
+					}
+					return inputs;
+				}
+
+				@Override
+				public List<Object> collect(Img<FloatType> outputs) {
+					return Collections.singletonList(outputs);
+				}
+
+				@Override
+				public void releaseInputs(Img<FloatType> inputs) {}
+
+				@Override
+				public void releaseOutputs(Img<FloatType> outputs) {}
+			};
+		}
+
+		@Override
+		public boolean isInitialized() {
+			return true;
+		}
+
+		@Override
+		public boolean libraryLoaded() {
+			return true;
+		}
+	}
+}
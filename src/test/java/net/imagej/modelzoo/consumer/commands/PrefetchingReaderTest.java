@@ -0,0 +1,80 @@
+package net.imagej.modelzoo.consumer.commands;
+
+import net.imglib2.img.array.ArrayImgs;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PrefetchingReaderTest {
+
+	@Test
+	public void testReadsInOrder() throws Exception {
+		final List<Integer> inputs = Arrays.asList(1, 2, 3, 4, 5, 6);
+		try (PrefetchingReader reader = new PrefetchingReader(inputs, input -> {
+			// later inputs finish first
+			Thread.sleep(10 * (7 - (int) input));
+			return input;
+		}, 3, Long.MAX_VALUE)) {
+			for (Integer input : inputs) {
+				assertEquals(input, reader.next());
+			}
+			assertFalse(reader.hasNext());
+		}
+	}
+
+	@Test
+	public void testFailedReadDoesNotStopOthers() throws Exception {
+		final List<Integer> inputs = Arrays.asList(1, 2, 3);
+		try (PrefetchingReader reader = new PrefetchingReader(inputs, input -> {
+			if ((int) input == 2) throw new IOException("cannot read " + input);
+			return input;
+		}, 2, Long.MAX_VALUE)) {
+			assertEquals(1, reader.next());
+			try {
+				reader.next();
+				fail();
+			}
+			catch (ExecutionException e) {
+				assertEquals(IOException.class, e.getCause().getClass());
+			}
+			assertEquals(3, reader.next());
+		}
+	}
+
+	@Test
+	public void testMemoryLimit() throws Exception {
+		final List<Integer> inputs = Arrays.asList(1, 2, 3, 4, 5, 6);
+		final AtomicInteger reads = new AtomicInteger();
+		// each image uses 400 bytes, the limit only allows one waiting image
+		try (PrefetchingReader reader = new PrefetchingReader(inputs, input -> {
+			reads.incrementAndGet();
+			Thread.sleep(50);
+			return ArrayImgs.floats(10, 10);
+		}, 4, 500)) {
+			// the image size is unknown before the first read is done
+			reader.next();
+			reader.next();
+			Thread.sleep(200);
+			assertEquals(4, reads.get());
+			reader.next();
+			reader.next();
+			Thread.sleep(200);
+			assertEquals(5, reads.get());
+		}
+	}
+
+	@Test
+	public void testEstimateBytes() {
+		assertEquals(400, PrefetchingReader.estimateBytes(ArrayImgs.floats(10, 10)));
+		assertEquals(100, PrefetchingReader.estimateBytes(ArrayImgs.unsignedBytes(10, 10)));
+		assertEquals(0, PrefetchingReader.estimateBytes("no image"));
+	}
+}
@@ -0,0 +1,111 @@
+package net.imagej.modelzoo.consumer.network.model;
+
+import org.junit.Test;
+import org.scijava.io.location.Location;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ModelRegistryTest {
+
+	@Test
+	public void testModelIsReused() {
+		final ModelRegistry registry = new ModelRegistry();
+		final Model model = registry.acquire("a", DummyModel::new);
+		registry.release(model);
+		assertSame(model, registry.acquire("a", DummyModel::new));
+		assertTrue(model.isInitialized());
+	}
+
+	@Test
+	public void testIsRegistered() {
+		final ModelRegistry registry = new ModelRegistry();
+		final Model model = registry.acquire("a", DummyModel::new);
+		assertTrue(registry.isRegistered(model));
+		assertFalse(registry.isRegistered(new DummyModel()));
+		registry.release(model);
+		registry.clear();
+		assertFalse(registry.isRegistered(model));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedModelIsDisposed() {
+		final ModelRegistry registry = new ModelRegistry();
+		registry.setMaxResident(1);
+		final Model a = registry.acquire("a", DummyModel::new);
+		final Model b = registry.acquire("b", DummyModel::new);
+		// both models are in use
+		assertTrue(a.isInitialized());
+		assertTrue(b.isInitialized());
+		registry.release(a);
+		assertFalse(a.isInitialized());
+		assertFalse(registry.contains("a"));
+		registry.release(b);
+		assertTrue(b.isInitialized());
+		assertTrue(registry.contains("b"));
+	}
+
+	@Test
+	public void testIdleModelIsDisposed() throws InterruptedException {
+		final ModelRegistry registry = new ModelRegistry();
+		registry.setIdleTimeout(10);
+		final Model model = registry.acquire("a", DummyModel::new);
+		registry.release(model);
+		waitForEviction(registry, "a");
+		assertFalse(model.isInitialized());
+		assertFalse(registry.contains("a"));
+	}
+
+	@Test
+	public void testReusedModelIsDisposedLater() throws InterruptedException {
+		final ModelRegistry registry = new ModelRegistry();
+		registry.setIdleTimeout(400);
+		final Model model = registry.acquire("a", DummyModel::new);
+		registry.release(model);
+		Thread.sleep(200);
+		registry.acquire("a", DummyModel::new);
+		registry.release(model);
+		// the first check finds the model used again and checks again later
+		Thread.sleep(300);
+		assertTrue(registry.contains("a"));
+		waitForEviction(registry, "a");
+		assertFalse(model.isInitialized());
+	}
+
+	private static void waitForEviction(ModelRegistry registry, String key) throws InterruptedException {
+		for (int i = 0; i < 100 && registry.contains(key); i++) {
+			Thread.sleep(50);
+		}
+	}
+
+	private static class DummyModel extends DefaultModel {
+
+		private boolean disposed = false;
+
+		@Override
+		protected boolean loadModel(Location source, String modelName) {
+			return true;
+		}
+
+		@Override
+		protected TilePipeline.Stages<?, ?> getStages() {
+			return null;
+		}
+
+		@Override
+		public boolean isInitialized() {
+			return !disposed;
+		}
+
+		@Override
+		public boolean libraryLoaded() {
+			return true;
+		}
+
+		@Override
+		public void dispose() {
+			disposed = true;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package net.imagej.modelzoo.consumer.network.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TilePipelineTest {
+
+	@Test
+	public void testMultipleWorkers() {
+		final List<List<Object>> tiles = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			tiles.add(Collections.singletonList(i));
+		}
+		final DoublingStages stages = new DoublingStages();
+		final List<Object> results = new ArrayList<>();
+		TilePipeline.runPipelined(stages, tiles.iterator(),
+				output -> results.add(output.get(0)), 2, 3);
+		assertEquals(20, results.size());
+		for (int i = 0; i < results.size(); i++) {
+			// results keep the order of the tiles
+			assertEquals(2 * i, results.get(i));
+		}
+		assertTrue(stages.maxRunning.get() > 1);
+		assertTrue(stages.maxRunning.get() <= 3);
+	}
+
+	@Test
+	public void testSlowTileLimitsPendingOutputs() {
+		final List<List<Object>> tiles = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			tiles.add(Collections.singletonList(i));
+		}
+		final DoublingStages stages = new DoublingStages(true);
+		final List<Object> results = new ArrayList<>();
+		final TilePipeline<Integer, Integer> pipeline = new TilePipeline<>(stages, 2, 3);
+		pipeline.run(tiles.iterator(), output -> results.add(output.get(0)));
+		assertEquals(30, results.size());
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(2 * i, results.get(i));
+		}
+		// the other tiles wait for the first one instead of all being executed
+		assertTrue(pipeline.getMaxPending() > 1);
+		assertTrue(pipeline.getMaxPending() <= 2 + 3);
+	}
+
+	private static class DoublingStages implements TilePipeline.Stages<Integer, Integer> {
+
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private final boolean slowFirstTile;
+
+		private DoublingStages() {
+			this(false);
+		}
+
+		private DoublingStages(boolean slowFirstTile) {
+			this.slowFirstTile = slowFirstTile;
+		}
+
+		@Override
+		public Integer prepare(List<Object> inputData) {
+			return (Integer) inputData.get(0);
+		}
+
+		@Override
+		public Integer execute(Integer input) {
+			final int current = running.incrementAndGet();
+			maxRunning.accumulateAndGet(current, Math::max);
+			try {
+				if (slowFirstTile) Thread.sleep(input == 0 ? 500 : 5);
+				// later tiles finish first
+				else Thread.sleep(40 - input);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				running.decrementAndGet();
+			}
+			return 2 * input;
+		}
+
+		@Override
+		public List<Object> collect(Integer output) {
+			return Collections.singletonList(output);
+		}
+
+		@Override
+		public void releaseInputs(Integer inputs) {}
+
+		@Override
+		public void releaseOutputs(Integer outputs) {}
+	}
+}
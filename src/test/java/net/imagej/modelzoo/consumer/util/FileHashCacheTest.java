@@ -0,0 +1,55 @@
+package net.imagej.modelzoo.consumer.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileHashCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testHashIsComputedAndStored() throws IOException {
+		final File file = folder.newFile("model.zip");
+		Files.write(file.toPath(), "model content".getBytes());
+		final File storage = new File(folder.getRoot(), "cache/" + FileHashCache.FILE_NAME);
+
+		final String md5 = new FileHashCache(storage).getMd5(file);
+		assertEquals(md5(file), md5);
+		assertTrue(storage.exists());
+
+		// a new cache reads the stored hash instead of the file
+		final String stored = new String(Files.readAllBytes(storage.toPath()));
+		assertTrue(stored.contains(md5));
+		assertEquals(md5, new FileHashCache(storage).getMd5(file));
+	}
+
+	@Test
+	public void testChangedFileIsHashedAgain() throws IOException {
+		final File file = folder.newFile("model.zip");
+		Files.write(file.toPath(), "model content".getBytes());
+		final FileHashCache cache = new FileHashCache(new File(folder.getRoot(), FileHashCache.FILE_NAME));
+		final String md5 = cache.getMd5(file);
+
+		Files.write(file.toPath(), "other model content".getBytes());
+		final String changed = cache.getMd5(file);
+		assertEquals(md5(file), changed);
+		assertTrue(!md5.equals(changed));
+	}
+
+	private static String md5(File file) throws IOException {
+		try (FileInputStream in = new FileInputStream(file)) {
+			return DigestUtils.md5Hex(in);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package net.imagej.modelzoo.consumer.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ModelZipExtractorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testExtraction() throws IOException {
+		final File zip = createZip();
+		final File dir = new File(folder.getRoot(), "model");
+		assertFalse(ModelZipExtractor.isExtracted(zip, dir));
+
+		new ModelZipExtractor().extract(zip, dir);
+		assertTrue(ModelZipExtractor.isExtracted(zip, dir));
+		assertEquals("yaml", new String(Files.readAllBytes(new File(dir, "model.yaml").toPath())));
+		assertEquals(1000, new File(dir, "variables/variables.data").length());
+	}
+
+	@Test
+	public void testIncompleteExtractionIsRepeated() throws IOException {
+		final File zip = createZip();
+		final File dir = new File(folder.getRoot(), "model");
+		new ModelZipExtractor().extract(zip, dir);
+		assertTrue(new File(dir, "model.yaml").delete());
+		assertFalse(ModelZipExtractor.isExtracted(zip, dir));
+
+		new ModelZipExtractor().extract(zip, dir);
+		assertTrue(new File(dir, "model.yaml").exists());
+		assertTrue(ModelZipExtractor.isExtracted(zip, dir));
+	}
+
+	private File createZip() throws IOException {
+		final File zip = folder.newFile("model.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			out.putNextEntry(new ZipEntry("model.yaml"));
+			out.write("yaml".getBytes());
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("variables/"));
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("variables/variables.data"));
+			out.write(new byte[1000]);
+			out.closeEntry();
+		}
+		return zip;
+	}
+}
@@ -0,0 +1,46 @@
+package net.imagej.modelzoo.tasks;
+
+import net.imagej.modelzoo.consumer.tiling.TilePlanner;
+import net.imagej.modelzoo.consumer.tiling.Tiling;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TilePlannerTest {
+
+	private static final Tiling.TilingAction[] XY = {
+			Tiling.TilingAction.TILE_WITH_PADDING,
+			Tiling.TilingAction.TILE_WITH_PADDING };
+
+	@Test
+	public void testNoTilingIfImageFits() {
+		final TilePlanner planner = new TilePlanner(100 * 100, 1,
+				new long[] { 1, 1 }, new long[] { 4, 4 }, new long[] { 8, 8 });
+		assertArrayEquals(new long[] { 1, 1 }, planner.plan(new long[] { 100, 100 }, XY));
+	}
+
+	@Test
+	public void testTilesFitIntoBudget() {
+		final long[] dims = { 100, 100 };
+		final long budget = 60 * 60;
+		final TilePlanner planner = new TilePlanner(budget, 1,
+				new long[] { 1, 1 }, new long[] { 4, 4 }, new long[] { 8, 8 });
+		final long[] tiling = planner.plan(dims, XY);
+		final long tilePixels = planner.getPaddedTileSize(dims, XY, 0, tiling[0])
+				* planner.getPaddedTileSize(dims, XY, 1, tiling[1]);
+		assertTrue(tilePixels <= budget);
+		// stripes only add the halo along one dimension
+		assertArrayEquals(new long[] { 1, 5 }, tiling);
+	}
+
+	@Test
+	public void testUntiledDimensionIsKept() {
+		final Tiling.TilingAction[] actions = {
+				Tiling.TilingAction.TILE_WITH_PADDING,
+				Tiling.TilingAction.NO_TILING };
+		final TilePlanner planner = new TilePlanner(40 * 3, 1,
+				new long[] { 1, 3 }, new long[] { 1, 0 }, new long[] { 0, 0 });
+		assertArrayEquals(new long[] { 3, 1 }, planner.plan(new long[] { 100, 3 }, actions));
+	}
+}
@@ -9,9 +9,12 @@ import net.imagej.modelzoo.consumer.task.DefaultTask;
 import net.imagej.modelzoo.consumer.task.Task;
 import net.imagej.modelzoo.consumer.tiling.AdvancedTiledView;
 import net.imagej.modelzoo.consumer.tiling.DefaultTiling;
+import net.imagej.modelzoo.consumer.tiling.TiledOutput;
 import net.imagej.modelzoo.consumer.tiling.Tiling;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 import org.junit.Test;
@@ -20,6 +23,7 @@ import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TilingTest extends AbstractModelZooTest {
@@ -244,6 +248,86 @@ public class TilingTest extends AbstractModelZooTest {
 
 		tiledView.dispose();
 	}
+
+	@Test
+	public void testAssemblyModes() {
+
+		final long[] datasetSize = { 10, 50, 100 };
+		final AxisType[] axes = { Axes.Z, Axes.X, Axes.Y };
+		final Img<FloatType> input = ArrayImgs.floats(datasetSize);
+		float i = 0;
+		for (FloatType pixel : input) {
+			pixel.setReal(i++);
+		}
+
+		for (DefaultTiling.AssemblyMode mode : DefaultTiling.AssemblyMode.values()) {
+			final DefaultTiling<FloatType> tiling = new DefaultTiling<>(8, 1, 32, 32);
+			tiling.setAssemblyMode(mode);
+			final Task task = new DefaultTask();
+			final Tiling.TilingAction[] actions = new Tiling.TilingAction[axes.length];
+			Arrays.fill(actions, Tiling.TilingAction.TILE_WITH_PADDING);
+			final AdvancedTiledView<FloatType> tiledView = tiling.preprocess(input,
+					axes, actions, task);
+			final Cursor<RandomAccessibleInterval<FloatType>> cursor = Views.iterable(
+					tiledView).cursor();
+			while (cursor.hasNext()) {
+				tiledView.getProcessedTiles().add(cursor.next());
+			}
+
+			final RandomAccessibleInterval<FloatType> output = tiling.postprocess(task,
+					tiledView, axes);
+
+			compareDimensions(input, output);
+			final Cursor<FloatType> expected = input.cursor();
+			final Cursor<FloatType> actual = Views.flatIterable(output).cursor();
+			while (expected.hasNext()) {
+				assertEquals(expected.next().get(), actual.next().get(), 0);
+			}
+			tiledView.dispose();
+		}
+	}
+
+	@Test
+	public void testTilesAreWrittenWhenProcessed() {
+
+		final long[] datasetSize = { 10, 50, 100 };
+		final AxisType[] axes = { Axes.Z, Axes.X, Axes.Y };
+		final Img<FloatType> input = ArrayImgs.floats(datasetSize);
+		float i = 0;
+		for (FloatType pixel : input) {
+			pixel.setReal(i++);
+		}
+
+		final DefaultTiling<FloatType> tiling = new DefaultTiling<>(8, 1, 32, 32);
+		final Task task = new DefaultTask();
+		final Tiling.TilingAction[] actions = new Tiling.TilingAction[axes.length];
+		Arrays.fill(actions, Tiling.TilingAction.TILE_WITH_PADDING);
+		final AdvancedTiledView<FloatType> tiledView = tiling.preprocess(input,
+				axes, actions, task);
+		final TiledOutput<FloatType> tiledOutput = tiledView.getTiledOutput();
+		assertNotNull(tiledOutput);
+		tiledOutput.setAxes(axes);
+		final Cursor<RandomAccessibleInterval<FloatType>> cursor = Views.flatIterable(
+				tiledView).cursor();
+		long index = 0;
+		while (cursor.hasNext()) {
+			tiledOutput.write(index++, cursor.next());
+		}
+		assertTrue(tiledView.getProcessedTiles().isEmpty());
+
+		final RandomAccessibleInterval<FloatType> output = tiling.postprocess(task,
+				tiledView, axes);
+
+		assertSame(tiledOutput.getImage(), output);
+		compareDimensions(input, output);
+		final Cursor<FloatType> expected = input.cursor();
+		final Cursor<FloatType> actual = Views.flatIterable(output).cursor();
+		while (expected.hasNext()) {
+			assertEquals(expected.next().get(), actual.next().get(), 0);
+		}
+		tiledView.dispose();
+	}
+
 //
 //	@Test
 //	public void testNetworkTiling() {
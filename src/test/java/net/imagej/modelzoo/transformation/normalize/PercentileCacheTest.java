@@ -0,0 +1,61 @@
+package net.imagej.modelzoo.transformation.normalize;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PercentileCacheTest {
+
+	private static final float[] PERCENTILES = { 1, 99 };
+
+	@Test
+	public void testHitsAndMisses() {
+		final PercentileCache cache = new PercentileCache(2);
+		final Img<FloatType> img = ArrayImgs.floats(10, 10);
+		assertNull(cache.get(img, img, PERCENTILES, 0));
+		cache.put(img, img, PERCENTILES, 0, result(1, 2));
+		final PercentileCache.Result result = cache.get(img, img, PERCENTILES, 0);
+		assertNotNull(result);
+		assertArrayEquals(new float[] { 1, 2 }, result.getValues(), 0);
+
+		// other percentiles, intervals, sampling or images are not cached
+		assertNull(cache.get(img, img, new float[] { 3, 99 }, 0));
+		assertNull(cache.get(img, new FinalInterval(5, 5), PERCENTILES, 0));
+		assertNull(cache.get(img, img, PERCENTILES, 100));
+		assertNull(cache.get(ArrayImgs.floats(10, 10), img, PERCENTILES, 0));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(5, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		final PercentileCache cache = new PercentileCache(2);
+		final Img<FloatType> img1 = ArrayImgs.floats(10);
+		final Img<FloatType> img2 = ArrayImgs.floats(10);
+		final Img<FloatType> img3 = ArrayImgs.floats(10);
+		cache.put(img1, img1, PERCENTILES, 0, result(1, 2));
+		cache.put(img2, img2, PERCENTILES, 0, result(3, 4));
+		cache.get(img1, img1, PERCENTILES, 0);
+		cache.put(img3, img3, PERCENTILES, 0, result(5, 6));
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(img1, img1, PERCENTILES, 0));
+		assertNull(cache.get(img2, img2, PERCENTILES, 0));
+		assertNotNull(cache.get(img3, img3, PERCENTILES, 0));
+
+		cache.invalidate(img1);
+		assertNull(cache.get(img1, img1, PERCENTILES, 0));
+	}
+
+	private static PercentileCache.Result result(float lower, float upper) {
+		final float[] values = { lower, upper };
+		return new PercentileCache.Result(values, values, values, 0);
+	}
+}
@@ -6,15 +6,18 @@ import net.imglib2.Cursor;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.histogram.Histogram1d;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.type.numeric.real.FloatType;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class PercentileTest {
 
@@ -129,6 +132,101 @@ public class PercentileTest {
 		System.out.println("created histogram");
 	}
 
+	@Test
+	public void testSampledPercentiles() {
+
+		final int size = 1000 * 1000;
+		final float[] data = new float[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = i;
+		}
+		final Img<FloatType> img = ArrayImgs.floats(data, 1000, 1000);
+		final float[] percentiles = new float[] { 1.0f, 99.0f };
+
+		SampledPercentile<FloatType> sampled = new SampledPercentile<>();
+		sampled.setMaxSamples(10000);
+		float[] res = sampled.computePercentiles(img, percentiles, null);
+		assertTrue(sampled.getRankError() > 0);
+		for (int i = 0; i < percentiles.length; i++) {
+			float exact = Math.round((size - 1) * percentiles[i] / 100.);
+			assertTrue(sampled.getLowerBounds()[i] <= res[i]);
+			assertTrue(sampled.getUpperBounds()[i] >= res[i]);
+			assertTrue(sampled.getLowerBounds()[i] <= exact);
+			assertTrue(sampled.getUpperBounds()[i] >= exact);
+		}
+
+		// sampling every value is exact
+		sampled.setMaxSamples(size);
+		res = sampled.computePercentiles(img, percentiles, null);
+		assertEquals(0, sampled.getRankError(), 0);
+		for (int i = 0; i < percentiles.length; i++) {
+			assertEquals(Math.round((size - 1) * percentiles[i] / 100.), res[i], 0);
+		}
+	}
+
+	@Test
+	public void testHistogramPercentilesLargeCellImg() {
+		// most values end up in one bin of the first histogram, which has to be refined
+		final Random random = new Random(42);
+		final float[] data = new float[1200 * 1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (float) random.nextGaussian();
+		}
+		data[0] = 1e30f;
+		data[1] = -1e30f;
+		testHistogramPercentiles(data, new float[] { 0f, 0.1f, 3f, 50f, 97f, 99.9f, 100f });
+	}
+
+	@Test
+	public void testHistogramPercentilesNonFinite() {
+		final Random random = new Random(42);
+		final float[] data = new float[1200 * 1000];
+		for (int i = 0; i < data.length; i++) {
+			final float r = random.nextFloat();
+			if (r < 0.02f) data[i] = Float.NEGATIVE_INFINITY;
+			else if (r < 0.05f) data[i] = Float.POSITIVE_INFINITY;
+			else if (r < 0.1f) data[i] = Float.NaN;
+			else data[i] = random.nextInt(1000) * 0.5f;
+		}
+		testHistogramPercentiles(data, new float[] { 0f, 1f, 3f, 50f, 96f, 98f, 100f });
+	}
+
+	@Test
+	public void testHistogramPercentilesOnlyInfinite() {
+		final float[] data = new float[1200 * 1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 3 == 0 ? Float.NEGATIVE_INFINITY : i % 3 == 1 ? Float.NaN : Float.POSITIVE_INFINITY;
+		}
+		testHistogramPercentiles(data, new float[] { 0f, 40f, 60f, 100f });
+	}
+
+	/**
+	 * Compares {@link HistogramPercentile} on a cell image against the values
+	 * of the same rank in the sorted data, ignoring NaN.
+	 */
+	private void testHistogramPercentiles(float[] data, float[] percentiles) {
+		final Img<FloatType> img = new CellImgFactory<>(new FloatType(), 64).create(
+			1200, 1000);
+		final Cursor<FloatType> cursor = img.cursor();
+		for (int i = 0; cursor.hasNext(); i++) {
+			cursor.next().set(data[i]);
+		}
+		final float[] sorted = new float[data.length];
+		int count = 0;
+		for (float v : data) {
+			if (!Float.isNaN(v)) sorted[count++] = v;
+		}
+		Arrays.sort(sorted, 0, count);
+
+		final HistogramPercentile<FloatType> percentile = new HistogramPercentile<>();
+		percentile.setNumThreads(4);
+		final float[] res = percentile.computePercentiles(img, percentiles, null);
+		for (int i = 0; i < percentiles.length; i++) {
+			final int rank = (int) Math.round((count - 1) * (double) percentiles[i] / 100.);
+			assertEquals(sorted[rank], res[i], 0);
+		}
+	}
+
 	private long mult(long[] dims) {
 		long res = 1;
 		for (int i = 0; i < dims.length; i++) {